@@ -0,0 +1,240 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/**
+ * Executor with a queue per worker thread, for owner-computes scheduling.
+ * A task is submitted to a particular worker, which runs its own tasks in FIFO order.
+ * Only a worker with an empty queue steals, trying workers of its own NUMA node first.
+ * The JVM cannot bind threads to nodes, so workers are grouped by index into
+ * {@code -Dinvertigo.numa.nodes} groups, which matches the node-major CPU numbering of
+ * common dual-socket hosts; memory a worker allocates is local to it under {@code -XX:+UseNUMA}.
+ */
+class AffinityExecutor extends AbstractExecutorService {
+
+    static final int NUMA_NODES = Integer.getInteger("invertigo.numa.nodes", 1);
+
+    private static final long IDLE_NANOS = 50_000;  // Idle workers rescan other queues that often
+
+    private static final int RUNNING  = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP     = 2;
+
+    class Worker extends Thread {
+        final int id;
+        final int[] victims;
+        final ConcurrentLinkedDeque<Runnable> queue = new ConcurrentLinkedDeque<>();
+        volatile Runnable pinned;
+        volatile boolean idle;
+
+        Worker(int id, int node) {
+            super("AffinityWorker-" + node + "-" + id);
+            this.id = id;
+            victims = new int[workers.length - 1];
+            int v = 0;
+            for (int w = 0; w < workers.length; ++w) {
+                if (w != id && node(w) == node) victims[v++] = w;
+            }
+            for (int w = 0; w < workers.length; ++w) {
+                if (node(w) != node) victims[v++] = w;
+            }
+            setDaemon(true);
+        }
+
+        private Runnable steal() {
+            for (int v : victims) {
+                Runnable task = workers[v].queue.pollLast();
+                if (task != null) {
+                    steals.incrementAndGet();
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (runState != STOP) {
+                    Runnable task = pinned;
+                    if (task != null) {
+                        pinned = null;
+                    }
+                    else if ((task = queue.pollFirst()) == null) {
+                        task = steal();
+                    }
+                    if (task != null) {
+                        task.run();
+                        continue;
+                    }
+                    if (runState == SHUTDOWN && pending.get() == 0) break;
+                    idle = true;
+                    if (queue.isEmpty() && pinned == null) {
+                        LockSupport.parkNanos(this, IDLE_NANOS);
+                    }
+                    idle = false;
+                }
+            }
+            finally {
+                terminated.countDown();
+            }
+        }
+    }
+
+    private final Worker[] workers;
+    private final int nodes;
+    private final AtomicLong steals = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger next = new AtomicInteger();
+    private final CountDownLatch terminated;
+    private volatile int runState = RUNNING;
+
+    AffinityExecutor(int nThreads, int nodes) {
+        this.nodes = Math.max(1, Math.min(nodes, nThreads));
+        workers = new Worker[nThreads];
+        terminated = new CountDownLatch(nThreads);
+        for (int w = 0; w < nThreads; ++w) {
+            workers[w] = new Worker(w, node(w));
+        }
+        for (Worker w : workers) {
+            w.start();
+        }
+    }
+
+    private int node(int worker) {
+        return (int) ((long) worker * nodes / workers.length);
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    int size() {
+        return workers.length;
+    }
+
+    /**
+     * @return the worker thread with the given index
+     */
+    Thread worker(int id) {
+        return workers[id];
+    }
+
+    /**
+     * Queue a task on the given worker. Tasks submitted after {@link #shutdownNow()} are discarded.
+     * @param id worker index
+     * @param task task to run
+     */
+    void execute(int id, Runnable task) {
+        if (runState == STOP) return;
+        Worker w = workers[id];
+        pending.incrementAndGet();
+        w.queue.offerLast(() -> {
+            try {
+                task.run();
+            }
+            finally {
+                pending.decrementAndGet();
+            }
+        });
+        if (w.idle) LockSupport.unpark(w);
+    }
+
+    /**
+     * Run an action on every worker, bypassing the queues so that it cannot be stolen,
+     * and wait for all of them to complete
+     * @param action consumer of the worker index
+     */
+    void runOnEach(IntConsumer action) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(workers.length);
+        for (Worker w : workers) {
+            w.pinned = () -> {
+                try {
+                    action.accept(w.id);
+                }
+                finally {
+                    done.countDown();
+                }
+            };
+            LockSupport.unpark(w);
+        }
+        done.await();
+    }
+
+    /**
+     * @return the number of tasks run by a worker other than the one they were queued on
+     */
+    long getStealCount() {
+        return steals.get();
+    }
+
+    /**
+     * Queue a task on the calling worker, or on the next worker in turn for an external caller
+     */
+    @Override
+    public void execute(Runnable task) {
+        Thread t = Thread.currentThread();
+        if (t instanceof Worker && workers[((Worker) t).id] == t) {
+            execute(((Worker) t).id, task);
+        }
+        else {
+            execute(Math.floorMod(next.getAndIncrement(), workers.length), task);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (runState == RUNNING) runState = SHUTDOWN;
+        for (Worker w : workers) LockSupport.unpark(w);
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        runState = STOP;
+        List<Runnable> tasks = new ArrayList<>();
+        for (Worker w : workers) {
+            for (Runnable task; (task = w.queue.pollFirst()) != null; ) tasks.add(task);
+            LockSupport.unpark(w);
+        }
+        return tasks;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+}
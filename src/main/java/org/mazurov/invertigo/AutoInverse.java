@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Inversion with the engine and thread count chosen by matrix size.
+ * On first use a calibration of up to a minute times every engine at doubling sizes and, for the parallel
+ * ones, at doubling thread counts, and stores the median times in a profile file. Every configuration
+ * is timed up to the size at which a single run would exceed a time limit. Each inversion then runs the
+ * configuration with the shortest time, scaled as {@code n^3} from the largest size it was timed
+ * at not above {@code n}, so crossovers between engines are found above the calibrated sizes too.
+ * Ties go to the engine listed first in {@link #ENGINES}, then to fewer threads.
+ * The profile carries a fingerprint of the hardware and the JVM and is recalibrated when
+ * the fingerprint no longer matches.
+ */
+public class AutoInverse {
+
+    static final String[] ENGINES = { "serial", "sliced", "parallel", "nowait", "nowait-sliced" };
+    static final int MIN_SIZE = 32;
+    static final int MAX_SIZE = 2048;
+
+    private static final int WARMUP = 1;
+    private static final int RUNS = 3;
+    private static final long POINT_NANOS = 2_000_000_000l;     // Longest single run worth timing
+    private static final long BUDGET_NANOS = 60_000_000_000l;   // Longest calibration
+    private static final String FINGERPRINT = "fingerprint";
+
+    /**
+     * Engine and thread count for a matrix size
+     */
+    public static class Choice {
+        public final String engine;
+        public final int threads;
+
+        Choice(String engine, int threads) {
+            this.engine = engine;
+            this.threads = threads;
+        }
+
+        @Override
+        public String toString() {
+            return engine + " threads: " + threads;
+        }
+    }
+
+    private final Path file;
+    private final int maxThreads;
+    private Properties profile;
+
+    /**
+     * @param file calibration profile, created or replaced when missing or stale
+     * @param maxThreads largest thread count to dispatch to
+     */
+    public AutoInverse(Path file, int maxThreads) {
+        this.file = file;
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    /**
+     * @return the profile location shared by all runs of a user
+     */
+    public static Path defaultProfile() {
+        return Paths.get(System.getProperty("user.home"), ".invertigo", "profile.properties");
+    }
+
+    /**
+     * @return a description of what the calibration depends on: processors, memory, JVM and the field
+     */
+    static String fingerprint() {
+        String cpu = "";
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/cpuinfo"))) {
+                if (line.startsWith("model name")) {
+                    cpu = line.substring(line.indexOf(':') + 1).trim();
+                    break;
+                }
+            }
+        }
+        catch (IOException | RuntimeException ex) {
+            // Not Linux, the remaining properties have to do
+        }
+        Runtime rt = Runtime.getRuntime();
+        return String.join("|", cpu, System.getProperty("os.arch"), System.getProperty("os.name"),
+                "cpus=" + rt.availableProcessors(), "mem=" + rt.maxMemory(),
+                "numa=" + AffinityExecutor.NUMA_NODES, System.getProperty("java.vm.name"),
+                System.getProperty("java.version"), "GF(2^" + GF.DEGREE + ")");
+    }
+
+    /**
+     * Load the profile, or calibrate and store it when it is missing or was taken on other hardware
+     */
+    private synchronized Properties profile() {
+        if (profile != null) return profile;
+        String fingerprint = fingerprint();
+        Properties p = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                p.load(in);
+            }
+            catch (IOException | IllegalArgumentException ex) {
+                // Unreadable profiles are recalibrated
+                p.clear();
+            }
+        }
+        if (!fingerprint.equals(p.getProperty(FINGERPRINT))) {
+            System.out.println("auto: calibrating into " + file + ", up to " + BUDGET_NANOS / 1_000_000_000l + " s once per machine");
+            p = calibrate();
+            p.setProperty(FINGERPRINT, fingerprint);
+            try {
+                if (file.getParent() != null) Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    p.store(out, "Invertigo calibration: median nanoseconds per size.engine.threads");
+                }
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return profile = p;
+    }
+
+    /**
+     * Time every engine and thread count at doubling sizes. A configuration is timed at the next
+     * size only while its time, scaled by {@code 8} for twice the size, is within {@link #POINT_NANOS},
+     * and calibration stops altogether after {@link #BUDGET_NANOS}.
+     */
+    private static Properties calibrate() {
+        Properties p = new Properties();
+        int[] threads = Sweep.range("1:" + Runtime.getRuntime().availableProcessors());
+        Map<String, Long> last = new HashMap<>();
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        for (int n = MIN_SIZE; n <= MAX_SIZE && System.nanoTime() - deadline < 0; n *= 2) {
+            long seed = n;
+            long[][] M = new Main.RandomMatrix(seed, n).getMatrix();
+            for (String engine : ENGINES) {
+                boolean sequential = engine.equals("serial") || engine.equals("sliced");
+                for (int par : sequential ? new int[] { 1 } : threads) {
+                    String config = engine + "." + par;
+                    Long prev = last.get(config);
+                    if (prev == null && n > MIN_SIZE || prev != null && 8 * prev > POINT_NANOS ||
+                            System.nanoTime() - deadline >= 0) {
+                        // Left to the extrapolation
+                        last.remove(config);
+                        continue;
+                    }
+                    long[] nanos = new long[RUNS];
+                    for (int i = -WARMUP; i < RUNS; ++i) {
+                        long[][] A = new long[n][];
+                        for (int r = 0; r < n; ++r) A[r] = M[r].clone();
+                        long start = System.nanoTime();
+                        try {
+                            Sweep.invert(engine, A, par);
+                        }
+                        catch (SingularMatrixException ex) {
+                            // Rare over a large field: time the point again on another matrix
+                            M = new Main.RandomMatrix(++seed, n).getMatrix();
+                            i = -WARMUP - 1;
+                            continue;
+                        }
+                        if (i >= 0) nanos[i] = System.nanoTime() - start;
+                    }
+                    Arrays.sort(nanos);
+                    long median = Sweep.percentile(nanos, 50);
+                    p.setProperty(n + "." + config, Long.toString(median));
+                    last.put(config, median);
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @return the fastest configuration for a matrix size, calibrating first if needed
+     */
+    public Choice choose(int n) {
+        Properties p = profile();
+        // Measured sizes and times by engine and thread count
+        Map<String, TreeMap<Integer, TreeMap<Integer, Long>>> points = new HashMap<>();
+        for (String key : p.stringPropertyNames()) {
+            if (key.equals(FINGERPRINT)) continue;
+            int dot = key.indexOf('.');
+            int last = key.lastIndexOf('.');
+            points.computeIfAbsent(key.substring(dot + 1, last), e -> new TreeMap<>())
+                    .computeIfAbsent(Integer.parseInt(key.substring(last + 1)), par -> new TreeMap<>())
+                    .put(Integer.parseInt(key.substring(0, dot)), Long.parseLong(p.getProperty(key)));
+        }
+
+        // Engines in their listed order and thread counts ascending, so that a tie keeps the earlier one
+        Choice best = new Choice("serial", 1);
+        double bestNanos = Double.MAX_VALUE;
+        for (String engine : ENGINES) {
+            TreeMap<Integer, TreeMap<Integer, Long>> byThreads = points.get(engine);
+            if (byThreads == null) continue;
+            for (Map.Entry<Integer, TreeMap<Integer, Long>> e : byThreads.headMap(maxThreads, true).entrySet()) {
+                // Scale the nearest measurement at or below n as n^3
+                Map.Entry<Integer, Long> point = e.getValue().floorEntry(n);
+                if (point == null) point = e.getValue().firstEntry();
+                double scale = (double) n / point.getKey();
+                double nanos = point.getValue() * scale * scale * scale;
+                if (nanos < bestNanos) {
+                    best = new Choice(engine, e.getKey());
+                    bestNanos = nanos;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * In-place matrix inversion with the fastest configuration for its size
+     * @param A input-output matrix
+     * throws {@code SingularMatrixException} for a singular matrix
+     */
+    public void invert(long[][] A) {
+        Choice choice = choose(A.length);
+        Sweep.invert(choice.engine, A, choice.threads);
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-place inversion of GF(2) matrices with bit-packed rows: bit {@code c % 64} of word {@code c / 64}
+ * of a row is the element in column {@code c}.
+ * Elimination steps are grouped by {@link #K} in the manner of the Method of Four Russians.
+ * The task owning the base rows of a group eliminates them among themselves and then tabulates,
+ * in Gray code order, the change the whole group makes to a row for every combination of the
+ * {@code K} bits the group reads from it. Every other row then takes one table lookup and one row XOR
+ * per group instead of up to {@code K} row XORs.
+ * Rows are scheduled in blocks with the wait-free dataflow of {@link NoWaitInverse}: a row block
+ * proceeds with a group as soon as it is done with the previous group and the table of the group is ready.
+ * Since tables copy what they need from the base rows, base rows do not wait for the other rows
+ * to complete a group before they proceed.
+ */
+public class BinaryInverse {
+
+    static final int K = 8;                 // Elimination steps per table
+    static final int MIN_BLOCK = 64;        // Smallest number of rows per task
+    static final int MAX_BLOCK = 1024;      // Largest number of rows per task
+
+    private int nThreads;
+    private ForkJoinPool pool;
+    private CountDownLatch finished;
+    private volatile RuntimeException exception;
+    private long[][] A;
+    private int n;
+    private int block;
+    private int[] perm;
+
+    public BinaryInverse(int par) {
+        nThreads = par;
+    }
+
+    /**
+     * @return bit {@code c} of a row
+     */
+    static int get(long[] row, int c) {
+        return (int) (row[c >>> 6] >>> c) & 1;
+    }
+
+    /**
+     * Swap bits {@code a} and {@code b} of a row
+     */
+    static void swap(long[] row, int a, int b) {
+        if (get(row, a) != get(row, b)) {
+            row[a >>> 6] ^= 1l << a;
+            row[b >>> 6] ^= 1l << b;
+        }
+    }
+
+    /**
+     * @return the first non-zero column of a row at or above {@code k}, or {@code -1}
+     */
+    static int findPivot(long[] row, int k) {
+        long mask = -1l << k;
+        for (int w = k >>> 6; w < row.length; ++w) {
+            long bits = row[w] & mask;
+            if (bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+            mask = -1l;
+        }
+        return -1;
+    }
+
+    static void xor(long[] dst, long[] src, int off) {
+        for (int w = 0; w < dst.length; ++w) {
+            dst[w] ^= src[off + w];
+        }
+    }
+
+    /**
+     * One elimination step applied to a row: swap the pivot column in and, if the row has
+     * a one in the pivot position, add the base row with its pivot bit cleared, which
+     * leaves the multiplier in the pivot position as the in-place algorithm requires
+     */
+    static void step(long[] row, int k, int colIdx, long[] masked) {
+        swap(row, colIdx, k);
+        if (get(row, k) != 0) xor(row, masked, 0);
+    }
+
+    /**
+     * Elimination steps {@code k..k+size-1} in a form applicable to any row in one XOR
+     */
+    static class Table {
+        final int k;
+        final int size;
+        final int[] cols;       // pivot columns
+        final int[] src;        // original positions of the bits the steps read
+        final long[] rows;      // 2^size row changes indexed by the read bits
+
+        /**
+         * Eliminate base rows {@code k..k+size-1} among themselves and tabulate their steps
+         * throws {@code SingularMatrixException} if a base row has no pivot
+         */
+        Table(long[][] A, int k, int size, int[] perm) {
+            this.k = k;
+            this.size = size;
+            int n = A.length;
+            int W = A[k].length;
+            cols = new int[size];
+            src = new int[size];
+            long[][] masked = new long[size][];
+
+            for (int j = 0; j < size; ++j) {
+                long[] baseRow = A[k + j];
+                int colIdx = findPivot(baseRow, k + j);
+                if (colIdx < 0 || colIdx >= n) throw new SingularMatrixException(k + j);
+                perm[k + j] = cols[j] = colIdx;
+                swap(baseRow, colIdx, k + j);
+                masked[j] = baseRow.clone();
+                masked[j][(k + j) >>> 6] ^= 1l << (k + j);
+                for (int i = 0; i < size; ++i) {
+                    if (i != j) step(A[k + i], k + j, colIdx, masked[j]);
+                }
+            }
+
+            // The bit read by step j comes from the position the swaps of steps up to j move into k + j
+            for (int j = 0; j < size; ++j) {
+                int p = k + j;
+                for (int t = j; t >= 0; --t) {
+                    if (p == k + t) p = cols[t];
+                    else if (p == cols[t]) p = k + t;
+                }
+                src[j] = p;
+            }
+
+            // Change made to a unit row at each source position, apart from the swaps,
+            // which move it to the position of its step
+            long[][] delta = new long[size][];
+            for (int j = 0; j < size; ++j) {
+                long[] row = new long[W];
+                row[src[j] >>> 6] = 1l << src[j];
+                for (int t = 0; t < size; ++t) {
+                    step(row, k + t, cols[t], masked[t]);
+                }
+                row[(k + j) >>> 6] ^= 1l << (k + j);
+                delta[j] = row;
+            }
+
+            // Gray code order: every entry is one XOR away from the previous one
+            rows = new long[W << size];
+            int prev = 0;
+            for (int i = 1; i < 1 << size; ++i) {
+                int gray = i ^ i >>> 1;
+                long[] d = delta[Integer.numberOfTrailingZeros(i)];
+                int dst = gray * W, from = prev * W;
+                for (int w = 0; w < W; ++w) {
+                    rows[dst + w] = rows[from + w] ^ d[w];
+                }
+                prev = gray;
+            }
+        }
+
+        /**
+         * Apply all steps of the table to a row
+         */
+        void apply(long[] row) {
+            int g = 0;
+            for (int j = 0; j < size; ++j) {
+                g |= get(row, src[j]) << j;
+            }
+            for (int j = 0; j < size; ++j) {
+                swap(row, cols[j], k + j);
+            }
+            if (g != 0) xor(row, rows, g * row.length);
+        }
+    }
+
+    class Task extends ForkJoinTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        int             idx;        // row block
+        int             step;       // step group
+        AtomicInteger   state;
+        Table           table;
+        Task            nextTask;
+        Task[]          curTasks;
+
+        Task(int i, Task[] tasks) {
+            idx = i;
+            step = 0;
+            curTasks = tasks;
+            state = new AtomicInteger(1);
+        }
+
+        Task(Task prev, Task[] tasks) {
+            idx = prev.idx;
+            step = prev.step + 1;
+            curTasks = tasks;
+            state = new AtomicInteger(owner(step) == idx ? 1 : 2);
+        }
+
+        @Override
+        public Void getRawResult() {
+            return null;
+        }
+
+        @Override
+        protected void setRawResult(Void value) {
+        }
+
+        void send() {
+            if (state.decrementAndGet() == 0) {
+                fork();
+            }
+        }
+
+        @Override
+        public boolean exec() {
+            if (exception != null) {
+                // Cancelled: do not touch the matrix and do not release dependent tasks
+                return true;
+            }
+            try {
+                int k = step * K;
+                int size = Math.min(K, n - k);
+                boolean lastTask = k + size == n;
+                if (owner(step) == idx) {
+                    table = new Table(A, k, size, perm);
+
+                    // Notify
+                    if (!lastTask) {
+                        Task[] next = new Task[curTasks.length];
+                        for (int i = 0; i < next.length; ++i) {
+                            next[i] = new Task(curTasks[i], next);
+                            curTasks[i].nextTask = next[i];
+                        }
+                    }
+                    for (Task t : curTasks) {
+                        if (t != this) {
+                            t.table = table;
+                            t.send();
+                        }
+                    }
+                }
+
+                // Compute
+                int hi = Math.min(n, (idx + 1) * block);
+                for (int r = idx * block; r < hi; ++r) {
+                    if (r >= k && r < k + size) continue;
+                    table.apply(A[r]);
+                }
+                table = null;
+
+                if (lastTask) finished.countDown();
+                else nextTask.send();
+            }
+            catch (RuntimeException ex) {
+                abort(ex);
+                return false;
+            }
+            catch (Throwable t) {
+                abort(new RuntimeException("ERROR", t));
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the row block holding the base rows of a step group
+     */
+    private int owner(int step) {
+        return step * K / block;
+    }
+
+    /**
+     * Record the first failure, discard all queued tasks and release the waiting caller
+     * @param ex failure cause
+     */
+    private synchronized void abort(RuntimeException ex) {
+        if (exception == null) {
+            exception = ex;
+        }
+        pool.shutdownNow();
+        while (finished.getCount() > 0) finished.countDown();
+    }
+
+    /**
+     * In-place matrix inversion
+     * @param a input-output bit-packed square matrix
+     * throws {@code SingularMatrixException} for a singular matrix, the content of which is undefined then
+     */
+    public void invert(long[][] a) {
+        A = a;
+        n = A.length;
+        perm = new int[n];
+        exception = null;
+
+        // Enough blocks for load balancing, each a whole number of step groups
+        block = Math.max(MIN_BLOCK, Math.min(MAX_BLOCK, n / (4 * nThreads))) / K * K;
+        int blocks = (n + block - 1) / block;
+        finished = new CountDownLatch(blocks);
+
+        pool = new ForkJoinPool(nThreads);
+        Task[] tasks = new Task[blocks];
+        for (int i = 0; i < blocks; ++i) {
+            tasks[i] = new Task(i, tasks);
+        }
+        pool.execute(tasks[0]);
+        tasks = null;
+
+        try {
+            finished.await();
+        }
+        catch (InterruptedException ex) {
+            abort(new RuntimeException("INTERRUPTED", ex));
+        }
+        pool.shutdown();
+        if (exception != null) {
+            // Wait for tasks already running to observe cancellation and leave the matrix alone
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException ie) {}
+            throw exception;
+        }
+
+        for (int r = perm.length - 1; r >= 0; --r) {
+            if (perm[r] != r) {
+                long[] t = A[r];
+                A[r] = A[perm[r]];
+                A[perm[r]] = t;
+            }
+        }
+    }
+
+    static abstract class Matrix {
+        long seed;
+        int  n;
+
+        Matrix(long seed, int n) {
+            this.seed = Math.abs(seed) + 1;
+            this.n = n;
+        }
+
+        public abstract long[][] getMatrix();
+        public abstract long[]   getRow(int row);
+
+        public boolean checkInverted(long[][] A) {
+            boolean[] status = new boolean[n];
+            int par = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(par, par,
+                    Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+                    new LinkedBlockingDeque<>(n));
+
+            for (int r = 0; r < n; ++r) {
+                final int rr = r;
+                executor.submit(() -> {
+                    long[] row = getRow(rr);
+                    long[] sum = new long[row.length];
+                    for (int k = 0; k < n; ++k) {
+                        if (get(row, k) != 0) xor(sum, A[k], 0);
+                    }
+                    sum[rr >>> 6] ^= 1l << rr;
+                    for (long w : sum) {
+                        if (w != 0) return;
+                    }
+                    status[rr] = true;
+                });
+            }
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException ie) {}
+
+            boolean res = true;
+            for (boolean b : status) res &= b;
+            return res;
+        }
+    }
+
+    /**
+     * Random invertible matrix: rows of {@code L * U}, shuffled, where {@code U} is a random unit
+     * upper triangular matrix and {@code L} a unit lower triangular one with a few random entries
+     * per row. A uniformly random matrix over GF(2) is singular with probability about 0.71,
+     * while {@code L * U} always has determinant one, and every row takes {@code O(n)} to generate.
+     */
+    static class RandomMatrix extends Matrix {
+        static final int TERMS = 3;     // Entries below the diagonal per row of L
+
+        private final int[] order;
+
+        RandomMatrix(long seed, int n) {
+            super(seed, n);
+            order = new int[n];
+            for (int i = 0; i < n; ++i) order[i] = i;
+            SplittableRandom rnd = new SplittableRandom(this.seed);
+            for (int i = 1; i < n; ++i) {
+                int j = rnd.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+        }
+
+        public long[][] getMatrix() {
+            long[][] A = new long[n][];
+            for (int r = 0; r < n; ++r) {
+                A[r] = getRow(r);
+            }
+            return A;
+        }
+
+        /**
+         * @return row {@code i} of {@code U}
+         */
+        private long[] upper(int i) {
+            long[] row = new long[(n + 63) >>> 6];
+            SplittableRandom rnd = new SplittableRandom(seed * 0x9e3779b97f4a7c15l + i);
+            for (int w = i >>> 6; w < row.length; ++w) {
+                row[w] = rnd.nextLong();
+            }
+            row[i >>> 6] = row[i >>> 6] & -1l << i | 1l << i;
+            if ((n & 63) != 0) row[row.length - 1] &= -1l >>> -n;
+            return row;
+        }
+
+        public long[] getRow(int r) {
+            int i = order[r];
+            long[] row = upper(i);
+            SplittableRandom rnd = new SplittableRandom(~seed * 0x9e3779b97f4a7c15l + i);
+            for (int t = 0; t < TERMS && i > 0; ++t) {
+                xor(row, upper(rnd.nextInt(i)), 0);
+            }
+            return row;
+        }
+    }
+
+    static class RandomSingularMatrix extends RandomMatrix {
+        long[] lastRow;
+
+        RandomSingularMatrix(long seed, int n) {
+            super(seed, n);
+        }
+
+        public long[][] getMatrix() {
+            long[][] A = new long[n][];
+            lastRow = new long[(n + 63) >>> 6];
+            for (int r = 0; r < n - 1; ++r) {
+                A[r] = getRow(r);
+                if ((r & 1) != 0) xor(lastRow, A[r], 0);
+            }
+            A[n-1] = lastRow;
+            return A;
+        }
+
+        public long[] getRow(int r) {
+            if (r == n - 1) return lastRow;
+            return super.getRow(r);
+        }
+    }
+
+    static void usage() {
+        System.out.println("Usage: java -cp Invertigo.jar " + BinaryInverse.class.getName() + " [-s seed] [-p parallelism] [-check] [-SINGULAR] [size]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) {
+        int n = 16384;
+        int nThreads = Runtime.getRuntime().availableProcessors();
+        boolean check = false;
+        long seed = System.currentTimeMillis() % 1000000l;
+        boolean singular = false;
+
+        for (int i = 0; i< args.length; ++i) {
+            String arg = args[i];
+            if (arg.length() == 0) usage();
+            if (arg.charAt(0) == '-') {
+                switch (args[i]) {
+                    case "-c":
+                        check = true;
+                        break;
+                    case "-p":
+                        if (++i == args.length) usage();
+                        nThreads = Math.max(1, Integer.parseInt(args[i]));
+                        break;
+                    case "-s":
+                        if (++i == args.length) usage();
+                        seed = Long.parseLong(args[i]);
+                        break;
+                    case "-SINGULAR":
+                        singular = true;
+                        break;
+                    default:
+                        usage();
+                        break;
+                }
+            }
+            else {
+                n = Integer.parseInt(args[i]);
+                break;
+            }
+        }
+
+        Matrix matrix = singular ? new RandomSingularMatrix(seed, n) : new RandomMatrix(seed, n);
+        long[][] A = matrix.getMatrix();
+
+        System.out.print("BinaryInverse: threads: " + nThreads);
+        long start = System.currentTimeMillis();
+        try {
+            new BinaryInverse(nThreads).invert(A);
+        }
+        catch (SingularMatrixException ex) {
+            System.out.println(" n: " + n + "  seed: " + seed + "  time: " + (System.currentTimeMillis() - start) +
+                    " ms  singular: rank " + ex.getRank() + " of leading " + (ex.getStep() + 1) + " rows");
+            return;
+        }
+        long end = System.currentTimeMillis();
+
+        double score = 1000. * n * n * n / (end - start);
+        System.out.println(" n: " + n + "  seed: " + seed + "  time: " + (end - start) + " ms  score: " + (long)score + " ops/sec");
+
+        if (check) {
+            boolean res = matrix.checkInverted(A);
+            System.out.println("check: " + (res ? "OK" : "FAIL") + " time: " + (System.currentTimeMillis() - end) + " ms");
+        }
+    }
+}
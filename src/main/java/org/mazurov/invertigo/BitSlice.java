@@ -0,0 +1,184 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+/**
+ * Bit-sliced Galois field rows.
+ * A row of {@code n} elements is stored as {@link GF#DEGREE} bit-planes of {@code W = ceil(n/64)} words:
+ * bit {@code c % 64} of word {@code i * W + c / 64} is the coefficient of {@code x^i} in element {@code c}.
+ * Multiplication by a scalar {@code m} is linear over GF(2): plane {@code i} of the argument contributes
+ * to every plane {@code j} where {@code m x^i} has bit {@code j} set. So adding a scaled row takes
+ * about {@code DEGREE^2 / 2} word-wide XORs per 64 elements instead of 64 bit-serial multiplications.
+ * Element access costs one bit operation per plane, which the elimination only needs a few times per row.
+ */
+public class BitSlice {
+
+    /**
+     * @return the number of words per plane of a row of {@code n} elements
+     */
+    static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    /**
+     * Convert a row to the bit-sliced form
+     * @param row field elements
+     * @return bit-planes
+     */
+    static long[] slice(long[] row) {
+        int W = words(row.length);
+        long[] s = new long[GF.DEGREE * W];
+        for (int c = 0; c < row.length; ++c) {
+            long bit = 1l << c;
+            int w = c >>> 6;
+            for (long e = row[c]; e != 0; e &= e - 1) {
+                s[Long.numberOfTrailingZeros(e) * W + w] |= bit;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Convert a row back from the bit-sliced form
+     * @param s bit-planes
+     * @param n number of elements
+     * @return field elements
+     */
+    static long[] unslice(long[] s, int n) {
+        long[] row = new long[n];
+        for (int c = 0; c < n; ++c) {
+            row[c] = get(s, c);
+        }
+        return row;
+    }
+
+    /**
+     * Convert all rows of a matrix in place
+     */
+    static void slice(long[][] A) {
+        for (int r = 0; r < A.length; ++r) {
+            A[r] = slice(A[r]);
+        }
+    }
+
+    /**
+     * Convert all rows of a bit-sliced square matrix back in place
+     */
+    static void unslice(long[][] A) {
+        for (int r = 0; r < A.length; ++r) {
+            A[r] = unslice(A[r], A.length);
+        }
+    }
+
+    /**
+     * @return element {@code c} of a bit-sliced row
+     */
+    static long get(long[] s, int c) {
+        int W = s.length / GF.DEGREE;
+        int w = c >>> 6;
+        long e = GF.ZERO;
+        for (int i = 0; i < GF.DEGREE; ++i) {
+            e |= (s[i * W + w] >>> c & 1) << i;
+        }
+        return e;
+    }
+
+    /**
+     * Set element {@code c} of a bit-sliced row
+     */
+    static void set(long[] s, int c, long e) {
+        int W = s.length / GF.DEGREE;
+        int w = c >>> 6;
+        long bit = 1l << c;
+        for (int i = 0; i < GF.DEGREE; ++i) {
+            s[i * W + w] = s[i * W + w] & ~bit | -(e >>> i & 1) & bit;
+        }
+    }
+
+    /**
+     * {@code cur += base * m} as a network of plane XORs
+     */
+    static void mulAdd(long[] cur, long[] base, long m) {
+        int W = cur.length / GF.DEGREE;
+        long v = m;
+        for (int i = 0; i < GF.DEGREE; ++i) {
+            int src = i * W;
+            for (long bits = v; bits != 0; bits &= bits - 1) {
+                int dst = Long.numberOfTrailingZeros(bits) * W;
+                for (int w = 0; w < W; ++w) {
+                    cur[dst + w] ^= base[src + w];
+                }
+            }
+            v = GF.mul(v, 2);
+        }
+    }
+
+    /**
+     * Find a non-zero element in the base row, scanning 64 elements at a time
+     * @param s bit-sliced base row
+     * @param k first column to search
+     * @return the pivot column, or {@code -1} if columns {@code k} and above are all zero
+     */
+    static int findPivot(long[] s, int k) {
+        int W = s.length / GF.DEGREE;
+        long mask = -1l << k;
+        for (int w = k >>> 6; w < W; ++w) {
+            long any = 0;
+            for (int i = 0; i < GF.DEGREE; ++i) {
+                any |= s[i * W + w];
+            }
+            any &= mask;
+            if (any != 0) return (w << 6) + Long.numberOfTrailingZeros(any);
+            mask = -1l;
+        }
+        return -1;
+    }
+
+    /**
+     * Swap the pivot into column {@code k} and scale the base row so that the pivot becomes one,
+     * see {@link SerialInverse#normalize}
+     */
+    static void normalize(long[] s, int k, int colIdx) {
+        long m = GF.rev(get(s, colIdx));
+        set(s, colIdx, get(s, k));
+        set(s, k, GF.UNIT);
+        long[] t = new long[s.length];
+        mulAdd(t, s, m);
+        System.arraycopy(t, 0, s, 0, s.length);
+    }
+
+    /**
+     * Find a non-zero element in the base row and normalize the row,
+     * see {@link SerialInverse#processBaseRow}
+     */
+    static int processBaseRow(long[] s, int k) {
+        int colIdx = findPivot(s, k);
+        if (colIdx < 0) throw new SingularMatrixException(k);
+        normalize(s, k, colIdx);
+        return colIdx;
+    }
+
+    /**
+     * Eliminate the pivot column of step {@code k} from a row, see {@link SerialInverse#updateRow}
+     */
+    static void updateRow(long[] cur, long[] base, int k, int colIdx) {
+        long m = get(cur, colIdx);
+        set(cur, colIdx, get(cur, k));
+        set(cur, k, GF.ZERO);
+        if (m != GF.ZERO) mulAdd(cur, base, m);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Recursive block inversion via the Schur complement.
+ * <pre>
+ *     A = | A11 A12 |    S = A22 - A21 A11^-1 A12
+ *         | A21 A22 |
+ *
+ *  A^-1 = | A11^-1 + A11^-1 A12 S^-1 A21 A11^-1   -A11^-1 A12 S^-1 |
+ *         | -S^-1 A21 A11^-1                       S^-1            |
+ * </pre>
+ * Almost all work is done by matrix products, see {@link GFMatrix}.
+ * The recursion does not pivot across blocks, so if a leading block turns out to be singular
+ * the whole matrix is inverted again by an engine that does.
+ */
+public class BlockInverse {
+
+    static final int BASE_SIZE = 128;   // Blocks inverted directly by SerialInverse
+
+    private int nThreads;
+    private ForkJoinPool pool;
+
+    public BlockInverse(int par) {
+        nThreads = par;
+    }
+
+    private long[][] multiply(long[][] A, long[][] B) {
+        return pool.invoke(new GFMatrix.Product(A, B));
+    }
+
+    /**
+     * Inverse of a matrix, which is left intact
+     * throws {@code SingularMatrixException} if any leading block is singular
+     */
+    private long[][] inverse(long[][] A) {
+        int n = A.length;
+        if (n <= BASE_SIZE) {
+            long[][] B = GFMatrix.block(A, 0, 0, n, n);
+            SerialInverse.invert(B);
+            return B;
+        }
+
+        int h = n / 2;
+        long[][] A12 = GFMatrix.block(A, 0, h, h, n - h);
+        long[][] A21 = GFMatrix.block(A, h, 0, n - h, h);
+
+        // In characteristic 2 negation is the identity, so all signs in the block formulas drop out
+        long[][] B11 = inverse(GFMatrix.block(A, 0, 0, h, h));
+        long[][] U = multiply(B11, A12);
+        long[][] T = multiply(A21, B11);
+        long[][] S = GFMatrix.sub(GFMatrix.block(A, h, h, n - h, n - h), multiply(A21, U));
+        long[][] B22 = inverse(S);
+        long[][] B12 = multiply(U, B22);
+        long[][] B21 = multiply(B22, T);
+        B11 = GFMatrix.add(B11, multiply(B12, T));
+
+        long[][] B = new long[n][n];
+        GFMatrix.place(B, B11, 0, 0);
+        GFMatrix.place(B, B12, 0, h);
+        GFMatrix.place(B, B21, h, 0);
+        GFMatrix.place(B, B22, h, h);
+        return B;
+    }
+
+    /**
+     * In-place matrix inversion
+     * @param A input-output matrix
+     * throws {@code SingularMatrixException} for a singular matrix
+     */
+    public void invert(long[][] A) {
+        pool = new ForkJoinPool(nThreads);
+        long[][] B;
+        try {
+            B = inverse(A);
+        }
+        catch (SingularMatrixException ex) {
+            // A singular leading block does not make the matrix singular: retry with pivoting
+            B = null;
+        }
+        finally {
+            pool.shutdown();
+        }
+
+        if (B == null) {
+            if (nThreads > 1) new NoWaitInverse(nThreads).invert(A);
+            else SerialInverse.invert(A);
+            return;
+        }
+        System.arraycopy(B, 0, A, 0, A.length);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodic checkpoints of an in-place inversion.
+ * A checkpoint holds the matrix rows together with the per-row step frontier, i.e. the number of
+ * elimination steps each row has completed, and the pivot columns of processed base rows.
+ * A row has completed step {@code k} when it was updated with base row {@code k},
+ * or for row {@code k} itself, when it was normalized.
+ * The engines only copy rows on their compute threads, writing to the file happens on
+ * a background thread, into a temporary file atomically renamed when complete.
+ */
+public class Checkpoint implements Closeable {
+
+    private static final long MAGIC = 0x496e7665727432l;   // "Invert2"
+
+    /**
+     * Consistent state of an interrupted inversion: all rows have completed the steps before
+     * {@code step} and none has started it
+     */
+    public static class State {
+        public final long[][] A;
+        public final int[] perm;
+        public final int step;
+        public final long seed;
+        public final int kind;
+
+        State(long[][] A, int[] perm, int step, long seed, int kind) {
+            this.A = A;
+            this.perm = perm;
+            this.step = step;
+            this.seed = seed;
+            this.kind = kind;
+        }
+    }
+
+    private final Path file;
+    private final long intervalNanos;
+    private final long seed;
+    private final int kind;
+    private final ExecutorService writer;
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private volatile long next;
+    private volatile IOException failure;
+
+    /**
+     * @param file checkpoint file
+     * @param intervalMillis time between the end of one checkpoint and the start of the next one
+     * @param seed generator seed of the input matrix, so that a resumed inversion can be checked
+     * @param kind generator kind of the input matrix, defined by the caller
+     */
+    public Checkpoint(Path file, long intervalMillis, long seed, int kind) {
+        this.file = file;
+        this.seed = seed;
+        this.kind = kind;
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        next = System.nanoTime() + intervalNanos;
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "CheckpointWriter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Check whether a checkpoint should be taken now.
+     * A {@code true} result reserves the checkpoint and obliges the caller to {@link #save} it.
+     */
+    boolean due() {
+        return System.nanoTime() - next >= 0 && busy.compareAndSet(false, true);
+    }
+
+    /**
+     * Save a matrix between elimination steps
+     * @param A matrix, copied by the calling thread
+     * @param step number of steps completed by all rows
+     * @param pivoted whether base row {@code step} has been normalized already
+     * @param perm pivot columns
+     */
+    void save(long[][] A, int step, boolean pivoted, int[] perm) {
+        long[][] rows = new long[A.length][];
+        int[] frontier = new int[A.length];
+        for (int r = 0; r < A.length; ++r) {
+            rows[r] = A[r].clone();
+            frontier[r] = step;
+        }
+        if (pivoted) frontier[step] = step + 1;
+        save(rows, frontier, perm.clone());
+    }
+
+    /**
+     * Save a consistent cut of the step frontier asynchronously
+     * @param rows copies of matrix rows owned by the checkpoint from now on
+     * @param frontier number of steps completed by every row
+     * @param perm pivot columns, defined for base rows that have been normalized
+     */
+    void save(long[][] rows, int[] frontier, int[] perm) {
+        writer.execute(() -> {
+            try {
+                write(rows, frontier, perm);
+            }
+            catch (IOException ex) {
+                failure = ex;
+            }
+            finally {
+                next = System.nanoTime() + intervalNanos;
+                busy.set(false);
+            }
+        });
+    }
+
+    private void write(long[][] rows, int[] frontier, int[] perm) throws IOException {
+        int n = rows.length;
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(24 + 8 * n);
+            buf.putLong(MAGIC).putInt(n).putLong(seed).putInt(kind);
+            for (int r = 0; r < n; ++r) {
+                buf.putInt(frontier[r]).putInt(perm[r]);
+            }
+            writeFully(channel, buf);
+            for (long[] row : rows) {
+                buf.asLongBuffer().put(row);
+                buf.position(8 * n);
+                writeFully(channel, buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) throw new IOException("Truncated checkpoint");
+        }
+        buf.flip();
+    }
+
+    /**
+     * Wait for the checkpoint being written, if any
+     * @throws IOException if writing any checkpoint failed
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException ie) {}
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Load a checkpoint and bring the rows lagging behind in the step frontier
+     * up to a common step, serially
+     * @param file checkpoint file
+     * @return state to resume the inversion from
+     * throws {@code SingularMatrixException} if the catch-up runs into a singular step
+     */
+    public static State load(Path file) throws IOException {
+        long[][] A;
+        int[] frontier;
+        int[] perm;
+        long seed;
+        int kind;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(24);
+            readFully(channel, header);
+            if (header.getLong() != MAGIC) throw new IOException("Not a checkpoint: " + file);
+            int n = header.getInt();
+            seed = header.getLong();
+            kind = header.getInt();
+            A = new long[n][n];
+            frontier = new int[n];
+            perm = new int[n];
+            ByteBuffer buf = ByteBuffer.allocateDirect(8 * n);
+            readFully(channel, buf);
+            for (int r = 0; r < n; ++r) {
+                frontier[r] = buf.getInt();
+                perm[r] = buf.getInt();
+            }
+            for (long[] row : A) {
+                buf.clear();
+                readFully(channel, buf);
+                buf.asLongBuffer().get(row);
+            }
+        }
+
+        // A consistent cut guarantees that a base row still needed by some row is intact
+        int n = A.length;
+        int k = n;
+        for (int f : frontier) k = Math.min(k, f);
+        for (; k < n; ++k) {
+            boolean uniform = true;
+            for (int f : frontier) uniform &= f == k;
+            if (uniform) break;
+
+            if (frontier[k] == k) {
+                perm[k] = SerialInverse.processBaseRow(A[k], k);
+                frontier[k] = k + 1;
+            }
+            for (int r = 0; r < n; ++r) {
+                if (r != k && frontier[r] == k) {
+                    SerialInverse.updateRow(A[r], A[k], k, perm[k]);
+                    frontier[r] = k + 1;
+                }
+            }
+        }
+        return new State(A, perm, k, seed, kind);
+    }
+}
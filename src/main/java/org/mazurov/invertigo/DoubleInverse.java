@@ -16,13 +16,67 @@
 
 package org.mazurov.invertigo;
 
+import java.util.Locale;
 import java.util.Random;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
 public class DoubleInverse {
 
+    /**
+     * Determinant as {@code mantissa * 2^exponent} with {@code 1 <= |mantissa| < 2}, or a zero mantissa,
+     * since the product of pivots leaves the double range already for moderate random matrices
+     */
+    static final class Determinant {
+        final double mantissa;
+        final long   exponent;
+
+        Determinant(double mantissa, long exponent) {
+            this.mantissa = mantissa;
+            this.exponent = exponent;
+        }
+
+        /**
+         * @return the determinant multiplied by {@code m}, renormalized
+         */
+        Determinant multiply(double m) {
+            double p = mantissa * m;
+            if (p == 0.) return new Determinant(0., 0);
+            int e = Math.getExponent(p);
+            return new Determinant(Math.scalb(p, -e), exponent + e);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Determinant)) return false;
+            Determinant d = (Determinant) o;
+            return mantissa == d.mantissa && exponent == d.exponent;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(mantissa) * 31 + Long.hashCode(exponent);
+        }
+
+        @Override
+        public String toString() {
+            if (mantissa == 0.) return "0";
+            // Decimal form for reading, binary form for exactness
+            double log10 = Math.log10(Math.abs(mantissa)) + exponent * Math.log10(2.);
+            long e10 = (long) Math.floor(log10);
+            double m10 = Math.pow(10., log10 - e10);
+            // Keep the printed mantissa below 10
+            if (m10 >= 9.9999995) {
+                m10 /= 10.;
+                ++e10;
+            }
+            return (mantissa < 0 ? "-" : "") + String.format(Locale.ROOT, "%.6fe%d", m10, e10) +
+                    " (" + mantissa + " x 2^" + exponent + ")";
+        }
+    }
+
     static abstract class Matrix {
         long seed;
         int  n;
@@ -35,13 +89,179 @@ public class DoubleInverse {
         public abstract double[][] getMatrix();
         public abstract double[]   getRow(int row);
 
+        /**
+         * Find the largest element in the base row
+         * @param baseRow base row
+         * @param k first column to search
+         * @return the pivot column
+         */
+        static int findPivot(double[] baseRow, int k) {
+            double maxAbs = -1.;
+            int colIdx = k;
+            for (int c = k; c < baseRow.length; ++c) {
+                if (maxAbs < Math.abs(baseRow[c])) {
+                    maxAbs = Math.abs(baseRow[c]);
+                    colIdx = c;
+                }
+            }
+            return colIdx;
+        }
+
+        /**
+         * Swap the pivot into column {@code k} and scale the base row, columns {@code lo} and above
+         */
+        static void normalize(double[] baseRow, int k, int colIdx, int lo) {
+            double m = 1. / baseRow[colIdx];
+            baseRow[colIdx] = baseRow[k];
+            baseRow[k] = 1.;
+            for (int c = lo; c < baseRow.length; ++c) {
+                baseRow[c] *= m;
+            }
+        }
+
+        /**
+         * Eliminate the pivot column from a row, updating columns {@code lo} and above
+         */
+        static void updateRow(double[] curRow, double[] baseRow, int k, int colIdx, int lo) {
+            double m = curRow[colIdx];
+            curRow[colIdx] = curRow[k];
+            curRow[k] = 0.;
+            for (int c = lo; c < curRow.length; ++c) {
+                curRow[c] -= baseRow[c] * m;
+            }
+        }
+
         static void invert(double[][] A) {
             int[] perm = new int[A.length];
             for (int k = 0; k < A.length; ++k) {
 
-                // Find the largest element in the base row
-                double maxAbs = -1.;
+                // Process the base row
+                double[] baseRow = A[k];
+                int colIdx = perm[k] = findPivot(baseRow, k);
+                normalize(baseRow, k, colIdx, 0);
+
+                // Update other rows
+                for (int r = 0; r < A.length; ++r) {
+                    if (r == k) continue;
+                    updateRow(A[r], baseRow, k, colIdx, 0);
+                }
+            }
+
+            // Apply the permutation to matrix rows
+            for (int r = perm.length - 1; r >= 0; --r) {
+                if (perm[r] != r) {
+                    double[] t = A[r];
+                    A[r] = A[perm[r]];
+                    A[perm[r]] = t;
+                }
+            }
+        }
+
+        /**
+         * Forward elimination only, skipping rows whose largest remaining element
+         * is negligible relative to the largest element of the matrix.
+         * See {@code SerialInverse.eliminate} for the Galois field version.
+         * @param A input matrix, destroyed
+         * @param pivots output pivot columns, {@code -1} for rows found dependent
+         * @return the determinant, zero unless the rank is full
+         */
+        static Determinant eliminate(double[][] A, int[] pivots) {
+            int n = A.length;
+            double norm = 0.;
+            for (double[] row : A) {
+                for (double v : row) norm = Math.max(norm, Math.abs(v));
+            }
+            double tol = n * Math.ulp(norm);
+
+            int rank = 0;
+            Determinant det = new Determinant(1., 0);
+            for (int k = 0; k < n; ++k) {
                 double[] baseRow = A[k];
+                int colIdx = pivots[k] = findPivot(baseRow, rank);
+                if (!(Math.abs(baseRow[colIdx]) > tol)) {
+                    pivots[k] = -1;
+                    det = new Determinant(0., 0);
+                    continue;
+                }
+                // A column swap flips the sign
+                det = det.multiply(colIdx == rank ? baseRow[colIdx] : -baseRow[colIdx]);
+                normalize(baseRow, rank, colIdx, rank + 1);
+                for (int r = k + 1; r < n; ++r) {
+                    updateRow(A[r], baseRow, rank, colIdx, rank + 1);
+                }
+                ++rank;
+            }
+            return det;
+        }
+
+        /**
+         * @param A input matrix, destroyed
+         * @return the determinant
+         */
+        static Determinant determinant(double[][] A) {
+            return eliminate(A, new int[A.length]);
+        }
+
+        /**
+         * @param A input matrix, destroyed
+         * @return the numerical rank
+         */
+        static int rank(double[][] A) {
+            int[] pivots = new int[A.length];
+            eliminate(A, pivots);
+            int rank = 0;
+            for (int colIdx : pivots) {
+                if (colIdx >= 0) ++rank;
+            }
+            return rank;
+        }
+
+        static final double CHECKED  = 1e-7;             // Largest error accepted by checkInverted
+        static final double REFINED  = 1e-13;            // Residual at which refinement stops
+        static final double ACCURATE = CHECKED / 2;      // Largest residual accepted from refinement
+        static final int    MAX_REFINE = 8;              // Newton-Schulz iterations before giving up
+
+        static final int ROW_BLOCK   = 32;               // Matrix product tiles
+        static final int COL_BLOCK   = 512;
+        static final int DEPTH_BLOCK = 64;
+
+        /**
+         * Single precision {@link #normalize(double[], int, int, int)}
+         */
+        static void normalize(float[] baseRow, int k, int colIdx, int lo) {
+            float m = 1.f / baseRow[colIdx];
+            baseRow[colIdx] = baseRow[k];
+            baseRow[k] = 1.f;
+            for (int c = lo; c < baseRow.length; ++c) {
+                baseRow[c] *= m;
+            }
+        }
+
+        /**
+         * Single precision {@link #updateRow(double[], double[], int, int, int)}
+         */
+        static void updateRow(float[] curRow, float[] baseRow, int k, int colIdx, int lo) {
+            float m = curRow[colIdx];
+            curRow[colIdx] = curRow[k];
+            curRow[k] = 0.f;
+            for (int c = lo; c < curRow.length; ++c) {
+                curRow[c] -= baseRow[c] * m;
+            }
+        }
+
+        /**
+         * In-place matrix inversion in single precision.
+         * The row loops live in small methods, which the JIT compiles and vectorizes on their own,
+         * rather than in one long loop nest, which it could only compile on stack replacement.
+         * @param A input-output matrix
+         */
+        static void invert(float[][] A) {
+            int[] perm = new int[A.length];
+            for (int k = 0; k < A.length; ++k) {
+
+                // Find the largest element in the base row
+                float maxAbs = -1.f;
+                float[] baseRow = A[k];
                 for (int c = k; c < A.length; ++c) {
                     if (maxAbs < Math.abs(baseRow[c])) {
                         maxAbs = Math.abs(baseRow[c]);
@@ -51,36 +271,123 @@ public class DoubleInverse {
 
                 // Process the base row
                 int colIdx = perm[k];
-                double m = 1. / baseRow[colIdx];
-                baseRow[colIdx] = baseRow[k];
-                baseRow[k] = 1.;
-                for (int c = 0; c < baseRow.length; ++c) {
-                    baseRow[c] *= m;
-                }
+                normalize(baseRow, k, colIdx, 0);
 
                 // Update other rows
                 for (int r = 0; r < A.length; ++r) {
                     if (r == k) continue;
-                    double[] curRow = A[r];
-                    m = curRow[colIdx];
-                    curRow[colIdx] = curRow[k];
-                    curRow[k] = 0.;
-                    for (int c = 0; c < curRow.length; ++c) {
-                        curRow[c] -= baseRow[c] * m;
-                    }
+                    updateRow(A[r], baseRow, k, colIdx, 0);
                 }
             }
 
             // Apply the permutation to matrix rows
             for (int r = perm.length - 1; r >= 0; --r) {
                 if (perm[r] != r) {
-                    double[] t = A[r];
+                    float[] t = A[r];
                     A[r] = A[perm[r]];
                     A[perm[r]] = t;
                 }
             }
         }
 
+        /**
+         * Blocked parallel matrix product on the common fork/join pool: {@code C += alpha * A * B}.
+         * Tiles of {@code B} are reused across a block of rows of {@code C} while they stay in cache.
+         */
+        static void multiplyAdd(double alpha, double[][] A, double[][] B, double[][] C) {
+            int n = A.length;
+            int m = B[0].length;
+            IntStream.range(0, (n + ROW_BLOCK - 1) / ROW_BLOCK).parallel().forEach(rb -> {
+                int rEnd = Math.min(n, (rb + 1) * ROW_BLOCK);
+                for (int j0 = 0; j0 < m; j0 += COL_BLOCK) {
+                    int jEnd = Math.min(m, j0 + COL_BLOCK);
+                    for (int k0 = 0; k0 < B.length; k0 += DEPTH_BLOCK) {
+                        int kEnd = Math.min(B.length, k0 + DEPTH_BLOCK);
+                        for (int r = rb * ROW_BLOCK; r < rEnd; ++r) {
+                            double[] a = A[r];
+                            double[] row = C[r];
+                            for (int k = k0; k < kEnd; ++k) {
+                                double f = alpha * a[k];
+                                if (f == 0.) continue;
+                                double[] b = B[k];
+                                for (int c = j0; c < jEnd; ++c) {
+                                    row[c] += f * b[c];
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        /**
+         * In-place mixed-precision matrix inversion.
+         * The inverse is computed in single precision, which halves memory traffic and doubles
+         * SIMD lanes, and then refined by Newton-Schulz iterations {@code X += X R} with the residual
+         * {@code R = I - A X} in double precision. Each iteration squares the residual, so its
+         * infinity norm bounds the next one and the residual after the last iteration is not computed.
+         * Every iteration costs two matrix products, each as much work as a whole inversion, so this
+         * trades time for accuracy: it pays off only where the products run faster than elimination.
+         * Falls back to {@link #invert(double[][])} unless the residual gets below
+         * {@link #ACCURATE}, e.g. for ill-conditioned or singular input.
+         * @param A input-output matrix
+         * @return the number of refinement iterations, or {@code -1} after a fallback
+         */
+        static int invertMixed(double[][] A) {
+            int n = A.length;
+            float[][] F = new float[n][n];
+            for (int r = 0; r < n; ++r) {
+                for (int c = 0; c < n; ++c) {
+                    F[r][c] = (float) A[r][c];
+                }
+            }
+            invert(F);
+            double[][] X = new double[n][n];
+            for (int r = 0; r < n; ++r) {
+                for (int c = 0; c < n; ++c) {
+                    X[r][c] = F[r][c];
+                }
+            }
+            F = null;
+
+            double prev = Double.POSITIVE_INFINITY;
+            for (int iter = 0; ; ++iter) {
+                // Residual R = I - A X and its infinity norm, which bounds the largest element
+                double[][] R = new double[n][n];
+                for (int r = 0; r < n; ++r) R[r][r] = 1.;
+                multiplyAdd(-1., A, X, R);
+                double res = 0.;
+                for (double[] row : R) {
+                    double sum = 0.;
+                    for (double v : row) sum += Math.abs(v);
+                    res = Math.max(res, sum);
+                }
+
+                // Stop once accurate, diverging or stagnating (this is also false for NaN) or out of iterations
+                if (res < REFINED || !(res < Math.min(1., prev / 2)) || iter == MAX_REFINE) {
+                    if (res < ACCURATE) {
+                        System.arraycopy(X, 0, A, 0, n);
+                        return iter;
+                    }
+                    break;
+                }
+                prev = res;
+
+                // X (I + R), whose residual is R^2
+                double[][] Y = new double[n][];
+                for (int r = 0; r < n; ++r) Y[r] = X[r].clone();
+                multiplyAdd(1., X, R, Y);
+                X = Y;
+                if (res * res < REFINED) {
+                    System.arraycopy(X, 0, A, 0, n);
+                    return iter + 1;
+                }
+            }
+
+            invert(A);
+            return -1;
+        }
+
         public double checkInverted(double[][] A) {
             double[] errs = new double[n];
             int par = Runtime.getRuntime().availableProcessors();
@@ -204,7 +511,7 @@ public class DoubleInverse {
     }
 
     static void usage() {
-        System.out.println("Usage: java -cp Invertigo.jar " + DoubleInverse.class.getName() + " [-s seed] [-check] [-SINGULAR] [-PERM] [size]");
+        System.out.println("Usage: java -cp Invertigo.jar " + DoubleInverse.class.getName() + " [-s seed] [-check] [-SINGULAR] [-PERM] [-MIXED] [-DET] [size]");
         System.exit(1);
     }
 
@@ -214,6 +521,8 @@ public class DoubleInverse {
         long seed = System.currentTimeMillis() % 1000000l;
         boolean singular = false;
         boolean permutation = false;
+        boolean mixed = false;
+        boolean det = false;
 
         for (int i = 0; i< args.length; ++i) {
             String arg = args[i];
@@ -233,6 +542,12 @@ public class DoubleInverse {
                     case "-PERM":
                         permutation = true;
                         break;
+                    case "-MIXED":
+                        mixed = true;
+                        break;
+                    case "-DET":
+                        det = true;
+                        break;
                     default:
                         usage();
                         break;
@@ -250,16 +565,49 @@ public class DoubleInverse {
         else matrix = new RandomMatrix(seed, n);
         double[][] A = matrix.getMatrix();
 
+        // Doubling every element of A is exact and scales the determinant by exactly 2^n
+        double[][] twice = null;
+        if (det && check) {
+            twice = new double[n][n];
+            for (int r = 0; r < n; ++r) {
+                for (int c = 0; c < n; ++c) twice[r][c] = 2. * A[r][c];
+            }
+        }
+
         long start = System.currentTimeMillis();
-        matrix.invert(A);
+        Determinant d = null;
+        if (det) {
+            int[] pivots = new int[n];
+            d = Matrix.eliminate(A, pivots);
+            int rank = 0;
+            for (int colIdx : pivots) {
+                if (colIdx >= 0) ++rank;
+            }
+            System.out.print("rank: " + rank + "  det: " + d);
+        }
+        else if (mixed) {
+            int iter = Matrix.invertMixed(A);
+            System.out.print(iter < 0 ? "mixed: fallback to double" : "mixed: refinement steps: " + iter);
+        }
+        else {
+            Matrix.invert(A);
+        }
         long end = System.currentTimeMillis();
 
         double score = 1000. * n * n * n / (end - start);
         System.out.println(" n: " + n + "  seed: " + seed + "  time: " + (end - start) + " ms  score: " + (long)score + " ops/sec");
 
-        if (check) {
+        if (det) {
+            if (check) {
+                Determinant d2 = Matrix.determinant(twice);
+                boolean res = d2.equals(d.mantissa == 0. ? d : new Determinant(d.mantissa, d.exponent + n));
+                System.out.println("check: det(2A) = " + d2 + (res ? " OK" : " FAIL") +
+                        " time: " + (System.currentTimeMillis() - end) + " ms");
+            }
+        }
+        else if (check) {
             double res = matrix.checkInverted(A);
-            System.out.println("max abs(error): " + res + (res < 1e-7 ? " OK" : " FAIL") + " time: " + (System.currentTimeMillis() - end) + " ms");
+            System.out.println("max abs(error): " + res + (res < Matrix.CHECKED ? " OK" : " FAIL") + " time: " + (System.currentTimeMillis() - end) + " ms");
         }
     }
 }
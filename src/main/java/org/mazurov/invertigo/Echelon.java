@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+/**
+ * Result of a forward elimination: the rank and the determinant of a Galois field matrix.
+ * The determinant is {@link GF#ZERO} unless the rank is full.
+ */
+public class Echelon {
+
+    private final int rank;
+    private final long det;
+
+    Echelon(int rank, long det) {
+        this.rank = rank;
+        this.det = det;
+    }
+
+    /**
+     * @return the number of linearly independent rows
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    /**
+     * @return the determinant
+     */
+    public long getDeterminant() {
+        return det;
+    }
+
+    @Override
+    public String toString() {
+        return "rank: " + rank + "  det: 0x" + Long.toHexString(det);
+    }
+}
@@ -29,8 +29,9 @@ public class GF {
     private static final long ROOT_36 = 0x1000000077l;   // 2^32 Galois field generator
     private static final long ROOT_42 = 0x4000000003fl;   // 2^42 Galois field generator
 
-    private static final long ROOT = ROOT_32;
+    static final long ROOT = ROOT_32;
     private static final long MSBIT = 62 - Long.numberOfLeadingZeros(ROOT); // Highest degree in residual polynomials
+    static final int DEGREE = (int) MSBIT + 1;                              // Field extension degree
 
     /**
      * Galois field multiplication
@@ -112,7 +113,199 @@ public class GF {
      * @return {@code 1 / a}
      */
     public static long rev(long a) {
-        return div(UNIT, a);
+        if (a == ZERO) {
+            throw new IllegalArgumentException("Division by zero");
+        }
+        return Reciprocal.rev(a);
+    }
+
+    /**
+     * Reciprocal computation, which is on the critical path of every elimination step.
+     * Depending on the field size it is
+     * <ul>
+     * <li>a table lookup for fields up to 2^16,</li>
+     * <li>for even degree {@code m = 2k} with {@code k <= 18}, an inversion in the tower
+     *     GF(2^k)[t] / (t^2 + s t + n) isomorphic to the field: in the tower
+     *     {@code 1 / (c0 + c1 t) = (c0 + c1 s + c1 t) / (c0^2 + c0 c1 s + c1^2 n)} takes a handful
+     *     of log/exp table operations in the subfield, and the change of basis to and from
+     *     the tower is a linear map applied byte by byte with tables,</li>
+     * <li>otherwise the extended Euclid algorithm of {@link #div}: an Itoh-Tsujii addition chain
+     *     on top of the bit-serial {@link #mul} is no faster for GF(2^42).</li>
+     * </ul>
+     * Tables are built on first use.
+     */
+    private static final class Reciprocal {
+
+        private static final int TABLE_DEGREE = 16;    // Largest field with a table of reciprocals
+        private static final int TOWER_DEGREE = 18;    // Largest subfield with log/exp tables
+
+        // Reciprocals of all field elements for small fields
+        private static final char[] TABLE;
+
+        // Subfield degree, log/exp tables of the subfield in the basis of powers of its generator,
+        // the tower polynomial coefficients, and change of basis tables to and from the tower
+        private static final int K;
+        private static final int[] LOG;
+        private static final int[] EXP;
+        private static final int S;
+        private static final int N;
+        private static final long[][] TO_TOWER;
+        private static final long[][] FROM_TOWER;
+
+        static {
+            char[] table = null;
+            int k = 0;
+            int[] log = null, exp = null;
+            int ts = 0, tn = 0;
+            long[][] to = null, from = null;
+
+            if (DEGREE <= TABLE_DEGREE) {
+                table = new char[1 << DEGREE];
+                for (int a = 1; a < table.length; ++a) {
+                    table[a] = (char) div(UNIT, a);
+                }
+            }
+            else if (DEGREE % 2 == 0 && DEGREE / 2 <= TOWER_DEGREE) {
+                k = DEGREE / 2;
+                int order = (1 << k) - 1;
+
+                // A generator h of the subfield GF(2^k), the elements of which satisfy x ^ (2^k) = x
+                long[][] frobenius = linearTable(k);
+                long h = ZERO;
+                for (long z = 2; h == ZERO; ++z) {
+                    long c = pow(z, ((1l << DEGREE) - 1) / order);
+                    long x = c;
+                    int i = 1;
+                    while (x != UNIT) {
+                        x = mul(x, c);
+                        ++i;
+                    }
+                    if (i == order) h = c;
+                }
+
+                // Some t outside of the subfield
+                long t = 2;
+                while (apply(t, frobenius) == t) ++t;
+
+                // Tower basis h^i t^j in field coordinates, and its inverse by Gauss-Jordan elimination
+                long[] basis = new long[DEGREE];
+                long[] inverse = new long[DEGREE];
+                long x = UNIT;
+                for (int i = 0; i < k; ++i) {
+                    basis[i] = x;
+                    basis[k + i] = mul(x, t);
+                    x = mul(x, h);
+                }
+                long[] rows = basis.clone();
+                for (int i = 0; i < DEGREE; ++i) {
+                    inverse[i] = 1l << i;
+                }
+                for (int b = 0; b < DEGREE; ++b) {
+                    int p = b;
+                    while ((rows[p] >>> b & 1) == 0) ++p;
+                    long tmp = rows[p]; rows[p] = rows[b]; rows[b] = tmp;
+                    tmp = inverse[p]; inverse[p] = inverse[b]; inverse[b] = tmp;
+                    for (int r = 0; r < DEGREE; ++r) {
+                        if (r != b && (rows[r] >>> b & 1) != 0) {
+                            rows[r] ^= rows[b];
+                            inverse[r] ^= inverse[b];
+                        }
+                    }
+                }
+                // Row i of the inverse holds tower coordinates of the field element 2^i
+                to = new long[(DEGREE + 7) / 8][256];
+                from = new long[(DEGREE + 7) / 8][256];
+                for (int p = 0; p < to.length; ++p) {
+                    for (int v = 0; v < 256; ++v) {
+                        long toTower = ZERO;
+                        long fromTower = ZERO;
+                        for (int i = 0; i < 8 && 8 * p + i < DEGREE; ++i) {
+                            if ((v >>> i & 1) != 0) {
+                                toTower ^= inverse[8 * p + i];
+                                fromTower ^= basis[8 * p + i];
+                            }
+                        }
+                        to[p][v] = toTower;
+                        from[p][v] = fromTower;
+                    }
+                }
+
+                exp = new int[2 * order];
+                log = new int[order + 1];
+                x = UNIT;
+                for (int i = 0; i < order; ++i) {
+                    exp[i] = exp[i + order] = (int) apply(x, to);
+                    log[exp[i]] = i;
+                    x = mul(x, h);
+                }
+
+                // t^2 = s t + n with s = t + t^(2^k) and n = t * t^(2^k)
+                long conj = apply(t, frobenius);
+                ts = (int) apply(t ^ conj, to);
+                tn = (int) apply(mul(t, conj), to);
+            }
+
+            TABLE = table;
+            K = k;
+            LOG = log;
+            EXP = exp;
+            S = ts;
+            N = tn;
+            TO_TOWER = to;
+            FROM_TOWER = from;
+        }
+
+        /**
+         * Byte-wise table of the linear map {@code x -> x ^ (2 ^ s)}
+         * @param s number of squarings
+         */
+        private static long[][] linearTable(int s) {
+            long[][] table = new long[(DEGREE + 7) / 8][256];
+            for (int p = 0; p < table.length; ++p) {
+                for (int v = 0; v < 256; ++v) {
+                    long x = ((long) v << (8 * p)) & (cardinality() - 1);
+                    for (int i = 0; i < s; ++i) {
+                        x = mul(x, x);
+                    }
+                    table[p][v] = x;
+                }
+            }
+            return table;
+        }
+
+        /**
+         * Apply a linear map given by a byte-wise table
+         */
+        private static long apply(long a, long[][] table) {
+            long res = ZERO;
+            for (int p = 0; p < table.length; ++p) {
+                res ^= table[p][(int) (a >>> (8 * p)) & 0xff];
+            }
+            return res;
+        }
+
+        /**
+         * Subfield multiplication
+         */
+        private static int mulSub(int a, int b) {
+            return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+        }
+
+        static long rev(long a) {
+            if (TABLE != null) {
+                return TABLE[(int) a];
+            }
+            if (LOG != null) {
+                long c = apply(a, TO_TOWER);
+                int c0 = (int) c & ((1 << K) - 1);
+                int c1 = (int) (c >>> K);
+                int c1s = mulSub(c1, S);
+                int norm = mulSub(c0, c0) ^ mulSub(c0, c1s) ^ mulSub(mulSub(c1, c1), N);
+                int r = EXP[EXP.length / 2 - LOG[norm]];
+                return apply(mulSub(c0 ^ c1s, r) | (long) mulSub(c1, r) << K, FROM_TOWER);
+            }
+            return div(UNIT, a);
+        }
     }
 
     /**
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Dense Galois field matrix operations used by the block inversion.
+ * Matrices are arrays of rows, not necessarily square.
+ */
+public class GFMatrix {
+
+    static final int STRASSEN_THRESHOLD = 256;  // Square size below which the classical product is faster
+    static final int ROW_GRAIN = 16;            // Rows per leaf task of the classical product
+    static final int K_TILE = 64;               // Rows of B reused from cache by a leaf task
+    static final int C_TILE = 512;              // Columns of B and C kept in cache by a leaf task
+
+    /**
+     * Copy a rectangular block
+     * @param A source matrix
+     * @param r0 first row
+     * @param c0 first column
+     * @param rows number of rows
+     * @param cols number of columns
+     * @return a new {@code rows x cols} matrix
+     */
+    static long[][] block(long[][] A, int r0, int c0, int rows, int cols) {
+        long[][] B = new long[rows][];
+        for (int r = 0; r < rows; ++r) {
+            B[r] = new long[cols];
+            System.arraycopy(A[r0 + r], c0, B[r], 0, cols);
+        }
+        return B;
+    }
+
+    /**
+     * Copy a matrix into a rectangular block of another one
+     * @param dst destination matrix
+     * @param src source matrix
+     * @param r0 first destination row
+     * @param c0 first destination column
+     */
+    static void place(long[][] dst, long[][] src, int r0, int c0) {
+        for (int r = 0; r < src.length; ++r) {
+            System.arraycopy(src[r], 0, dst[r0 + r], c0, src[r].length);
+        }
+    }
+
+    /**
+     * @return {@code A + B} as a new matrix
+     */
+    static long[][] add(long[][] A, long[][] B) {
+        long[][] C = new long[A.length][];
+        for (int r = 0; r < A.length; ++r) {
+            long[] a = A[r];
+            long[] b = B[r];
+            long[] c = C[r] = new long[a.length];
+            for (int j = 0; j < c.length; ++j) {
+                c[j] = GF.add(a[j], b[j]);
+            }
+        }
+        return C;
+    }
+
+    /**
+     * @return {@code A - B} as a new matrix
+     */
+    static long[][] sub(long[][] A, long[][] B) {
+        long[][] C = new long[A.length][];
+        for (int r = 0; r < A.length; ++r) {
+            long[] a = A[r];
+            long[] b = B[r];
+            long[] c = C[r] = new long[a.length];
+            for (int j = 0; j < c.length; ++j) {
+                c[j] = GF.sub(a[j], b[j]);
+            }
+        }
+        return C;
+    }
+
+    /**
+     * Matrix product, to be invoked in a {@code ForkJoinPool}.
+     * Square operands of even size above {@link #STRASSEN_THRESHOLD} are multiplied with
+     * the Strassen-Winograd scheme, which is exact in a finite field.
+     */
+    static class Product extends RecursiveTask<long[][]> {
+        private static final long serialVersionUID = 1L;
+
+        final long[][] A;
+        final long[][] B;
+
+        Product(long[][] A, long[][] B) {
+            this.A = A;
+            this.B = B;
+        }
+
+        @Override
+        protected long[][] compute() {
+            int n = A.length;
+            if (n >= STRASSEN_THRESHOLD && (n & 1) == 0 && B.length == n && B[0].length == n && A[0].length == n) {
+                return strassen();
+            }
+            long[][] C = new long[n][B[0].length];
+            new Classical(A, B, C, 0, n).compute();
+            return C;
+        }
+
+        private long[][] strassen() {
+            int h = A.length / 2;
+            long[][] A11 = block(A, 0, 0, h, h), A12 = block(A, 0, h, h, h);
+            long[][] A21 = block(A, h, 0, h, h), A22 = block(A, h, h, h, h);
+            long[][] B11 = block(B, 0, 0, h, h), B12 = block(B, 0, h, h, h);
+            long[][] B21 = block(B, h, 0, h, h), B22 = block(B, h, h, h, h);
+
+            long[][] S1 = add(A21, A22);
+            long[][] S2 = sub(S1, A11);
+            long[][] S3 = sub(A11, A21);
+            long[][] S4 = sub(A12, S2);
+            long[][] T1 = sub(B12, B11);
+            long[][] T2 = sub(B22, T1);
+            long[][] T3 = sub(B22, B12);
+            long[][] T4 = sub(T2, B21);
+
+            Product P1 = new Product(A11, B11);
+            Product P2 = new Product(A12, B21);
+            Product P3 = new Product(S4, B22);
+            Product P4 = new Product(A22, T4);
+            Product P5 = new Product(S1, T1);
+            Product P6 = new Product(S2, T2);
+            Product P7 = new Product(S3, T3);
+            invokeAll(P1, P2, P3, P4, P5, P6, P7);
+
+            long[][] U2 = add(P1.join(), P6.join());
+            long[][] U3 = add(U2, P7.join());
+            long[][] U4 = add(U2, P5.join());
+
+            long[][] C = new long[2 * h][2 * h];
+            place(C, add(P1.join(), P2.join()), 0, 0);
+            place(C, add(U4, P3.join()), 0, h);
+            place(C, sub(U3, P4.join()), h, 0);
+            place(C, add(U3, P5.join()), h, h);
+            return C;
+        }
+    }
+
+    /**
+     * Classical product of a row range, split in parallel down to {@link #ROW_GRAIN} rows.
+     * Leaf tasks accumulate {@code C[i] += A[i][k] * B[k]} over tiles of {@code B}.
+     */
+    static class Classical extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final long[][] A;
+        final long[][] B;
+        final long[][] C;
+        final int lo;
+        final int hi;
+
+        Classical(long[][] A, long[][] B, long[][] C, int lo, int hi) {
+            this.A = A;
+            this.B = B;
+            this.C = C;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > ROW_GRAIN) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Classical(A, B, C, lo, mid), new Classical(A, B, C, mid, hi));
+                return;
+            }
+            int inner = B.length;
+            int cols = C[lo].length;
+            for (int c0 = 0; c0 < cols; c0 += C_TILE) {
+                int c1 = Math.min(cols, c0 + C_TILE);
+                for (int k0 = 0; k0 < inner; k0 += K_TILE) {
+                    int k1 = Math.min(inner, k0 + K_TILE);
+                    for (int i = lo; i < hi; ++i) {
+                        long[] a = A[i];
+                        long[] c = C[i];
+                        for (int k = k0; k < k1; ++k) {
+                            long m = a[k];
+                            if (m == GF.ZERO) continue;
+                            long[] b = B[k];
+                            for (int j = c0; j < c1; ++j) {
+                                c[j] = GF.add(c[j], GF.mul(b[j], m));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Inverses of recently seen matrices, in front of any inversion engine.
+ * Entries are keyed by a 128-bit hash of the matrix and the field, computed over rows in parallel,
+ * and evicted in least recently used order once their total size exceeds a bound. Inverses are
+ * kept on the heap or, optionally, in direct buffers outside of it. A hit is verified with
+ * Freivalds' check {@code A * (B * x) == x} for a random vector {@code x}, which takes {@code O(n^2)}
+ * operations and lets a wrong inverse through with probability {@code 2^-DEGREE} at most.
+ */
+public class InverseCache {
+
+    private static final long P1 = 0x9e3779b97f4a7c15l;
+    private static final long P2 = 0xc2b2ae3d27d4eb4fl;
+    private static final long P3 = 0x165667b19e3779f9l;
+
+    /**
+     * 128-bit content hash of a square matrix over the field
+     */
+    static final class Key {
+        final int n;
+        final long hi, lo;
+
+        Key(long[][] A) {
+            n = A.length;
+            long[] his = new long[n];
+            long[] los = new long[n];
+            IntStream.range(0, n).parallel().forEach(r -> {
+                long h1 = P1 ^ r, h2 = P2 + r;
+                for (long e : A[r]) {
+                    h1 = Long.rotateLeft(h1 ^ e * P2, 31) * P1;
+                    h2 = Long.rotateLeft(h2 + e * P3, 27) * P2 ^ h1;
+                }
+                his[r] = mix(h1);
+                los[r] = mix(h2 + h1);
+            });
+            // Rows are salted with their index, so a sum is order-sensitive
+            long h1 = mix(GF.ROOT ^ n), h2 = mix(GF.DEGREE + P3 * n);
+            for (int r = 0; r < n; ++r) {
+                h1 += his[r];
+                h2 += los[r];
+            }
+            hi = mix(h1 ^ h2 * P1);
+            lo = mix(h2 ^ h1 * P3);
+        }
+
+        /**
+         * MurmurHash3 finalizer
+         */
+        private static long mix(long h) {
+            h = (h ^ h >>> 33) * 0xff51afd7ed558ccdl;
+            h = (h ^ h >>> 33) * 0xc4ceb9fe1a85ec53l;
+            return h ^ h >>> 33;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return n == k.n && hi == k.hi && lo == k.lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) lo;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", hi, lo);
+        }
+    }
+
+    /**
+     * Inverse matrix, immutable once cached
+     */
+    static final class Entry {
+        final long[][] heap;
+        final LongBuffer[] direct;
+        final long bytes;
+
+        Entry(long[][] B, boolean offHeap) {
+            int n = B.length;
+            bytes = 8l * n * n;
+            if (offHeap) {
+                heap = null;
+                direct = new LongBuffer[n];
+                for (int r = 0; r < n; ++r) {
+                    direct[r] = ByteBuffer.allocateDirect(8 * n).asLongBuffer().put(B[r]);
+                }
+            }
+            else {
+                direct = null;
+                heap = new long[n][];
+                for (int r = 0; r < n; ++r) heap[r] = B[r].clone();
+            }
+        }
+
+        /**
+         * @return element {@code c} of row {@code r}
+         */
+        long get(int r, int c) {
+            return heap != null ? heap[r][c] : direct[r].get(c);
+        }
+
+        void copyRow(int r, long[] dst) {
+            if (heap != null) System.arraycopy(heap[r], 0, dst, 0, dst.length);
+            else direct[r].duplicate().rewind().get(dst);
+        }
+    }
+
+    private final long maxBytes;
+    private final boolean offHeap;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<Key, CompletableFuture<Entry>> pending = new HashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param maxBytes bound on the total size of cached inverses
+     * @param offHeap whether to keep inverses in direct buffers
+     */
+    public InverseCache(long maxBytes, boolean offHeap) {
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * In-place matrix inversion: copy a cached inverse, or invert with an engine and cache the result.
+     * Concurrent misses on the same matrix wait for the first one to invert it instead of inverting it again.
+     * @param A input-output matrix
+     * @param engine in-place inversion on a miss
+     * throws {@code SingularMatrixException} for a singular matrix, which is not cached
+     */
+    public void invert(long[][] A, Consumer<long[][]> engine) {
+        Key key = new Key(A);
+        Entry entry;
+        CompletableFuture<Entry> inverting = null;
+        CompletableFuture<Entry> own = null;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                inverting = pending.get(key);
+                if (inverting == null) pending.put(key, own = new CompletableFuture<>());
+            }
+        }
+        if (inverting != null) {
+            try {
+                entry = inverting.join();
+            }
+            catch (CompletionException ex) {
+                // The same matrix, the same failure
+                if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+                throw ex;
+            }
+        }
+        if (entry != null) {
+            if (verify(A, entry)) {
+                hits.incrementAndGet();
+                Entry hit = entry;
+                IntStream.range(0, A.length).parallel().forEach(r -> hit.copyRow(r, A[r]));
+                return;
+            }
+            // A hash collision or a damaged entry
+            rejected.incrementAndGet();
+            synchronized (this) {
+                if (entries.remove(key, entry)) bytes -= entry.bytes;
+            }
+        }
+
+        misses.incrementAndGet();
+        try {
+            engine.accept(A);
+        }
+        catch (RuntimeException ex) {
+            if (own != null) {
+                synchronized (this) {
+                    pending.remove(key);
+                }
+                own.completeExceptionally(ex);
+            }
+            throw ex;
+        }
+        // Inverses over the bound are neither cached nor handed to waiters, which invert on their own
+        Entry added = 8l * A.length * A.length <= maxBytes ? new Entry(A, offHeap) : null;
+        synchronized (this) {
+            if (own != null) pending.remove(key);
+            if (added != null) {
+                Entry old = entries.put(key, added);
+                bytes += added.bytes - (old != null ? old.bytes : 0);
+                for (Iterator<Entry> it = entries.values().iterator(); bytes > maxBytes; ) {
+                    bytes -= it.next().bytes;
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        if (own != null) own.complete(added);
+    }
+
+    /**
+     * Freivalds' check of a cached inverse against the matrix
+     */
+    private static boolean verify(long[][] A, Entry B) {
+        int n = A.length;
+        long mask = GF.cardinality() - 1;
+        long[] x = new long[n];
+        for (int c = 0; c < n; ++c) {
+            x[c] = ThreadLocalRandom.current().nextLong() & mask;
+        }
+        long[] y = new long[n];
+        IntStream.range(0, n).parallel().forEach(r -> {
+            long sum = GF.ZERO;
+            for (int c = 0; c < n; ++c) {
+                sum = GF.add(sum, GF.mul(B.get(r, c), x[c]));
+            }
+            y[r] = sum;
+        });
+        return IntStream.range(0, n).parallel().allMatch(r -> {
+            long sum = GF.ZERO;
+            for (int c = 0; c < n; ++c) {
+                sum = GF.add(sum, GF.mul(A[r][c], y[c]));
+            }
+            return sum == x[r];
+        });
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return number of cached inverses that failed verification
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "cache: hits " + getHits() + "  misses " + getMisses() + "  evictions " + getEvictions() +
+                "  rejected " + getRejected() + "  entries " + size() + "  bytes " + getBytes() +
+                (offHeap ? " off-heap" : "");
+    }
+}
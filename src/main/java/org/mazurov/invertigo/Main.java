@@ -16,13 +16,26 @@
 
 package org.mazurov.invertigo;
 
-import java.util.Random;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class Main {
 
+    // Kinds of generated matrices, recorded in checkpoints
+    static final int RANDOM      = 0;
+    static final int SINGULAR    = 1;
+    static final int PERMUTATION = 2;
+
+    /**
+     * Test matrix, every row of which can be generated on its own, in any order and from any thread.
+     * The same row is generated the same way every time, so that inverses can be checked against
+     * rows generated anew and rows can be streamed into an engine while it runs.
+     */
     static abstract class Matrix {
         long seed;
         int  n;
@@ -32,40 +45,60 @@ public class Main {
             this.n = n;
         }
 
-        public abstract long[][] getMatrix();
-        public abstract long[]   getRow(int row);
+        /**
+         * Generate a row into existing storage
+         * @param r row index
+         * @param row storage of {@code n} elements, all overwritten
+         */
+        public abstract void getRow(int r, long[] row);
 
-        public boolean checkInverted(long[][] A) {
-            boolean[] status = new boolean[n];
-            int par = Runtime.getRuntime().availableProcessors();
-            ThreadPoolExecutor executor = new ThreadPoolExecutor(par, par,
-                    Long.MAX_VALUE, TimeUnit.NANOSECONDS,
-                    new LinkedBlockingDeque<>(n));
-
-            for (int r = 0; r < n; ++r) {
-                final int rr = r;
-                executor.submit(() -> {
-                    long[] row = getRow(rr);
-                    for (int c = 0; c < n; ++c) {
-                        long sum = GF.ZERO;
-                        for (int k = 0; k < n; ++k) {
-                            sum = GF.add(sum, GF.mul(row[k], A[k][c]));
-                        }
-                        if (c == rr) sum = GF.sub(sum, GF.UNIT);
-                        if (sum != GF.ZERO) return;
-                    }
-                    status[rr] = true;
-                });
-            }
-            executor.shutdown();
-            try {
-                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        public long[] getRow(int r) {
+            long[] row = new long[n];
+            getRow(r, row);
+            return row;
+        }
+
+        public long[][] getMatrix() {
+            long[][] A = new long[n][n];
+            getMatrix(A);
+            return A;
+        }
+
+        /**
+         * Generate all rows into existing storage, in parallel
+         */
+        public void getMatrix(long[][] A) {
+            IntStream.range(0, n).parallel().forEach(r -> getRow(r, A[r]));
+        }
+
+        /**
+         * Random row elements: every row has a generator of its own, seeded by the matrix seed
+         * and the row index through the SplitMix64 finalizer of {@code SplittableRandom},
+         * so rows of nearby seeds and indices are unrelated
+         */
+        void randomRow(int r, long[] row) {
+            SplittableRandom rnd = new SplittableRandom(seed * 0x9e3779b97f4a7c15l + r);
+            long mask = GF.cardinality() - 1;
+            for (int c = 0; c < n; ++c) {
+                row[c] = rnd.nextLong() & mask;
             }
-            catch (InterruptedException ie) {}
+        }
 
-            boolean res = true;
-            for (boolean b : status) res &= b;
-            return res;
+        public boolean checkInverted(long[][] A) {
+            ThreadLocal<long[]> rows = ThreadLocal.withInitial(() -> new long[n]);
+            return IntStream.range(0, n).parallel().allMatch(r -> {
+                long[] row = rows.get();
+                getRow(r, row);
+                for (int c = 0; c < n; ++c) {
+                    long sum = GF.ZERO;
+                    for (int k = 0; k < n; ++k) {
+                        sum = GF.add(sum, GF.mul(row[k], A[k][c]));
+                    }
+                    if (c == r) sum = GF.sub(sum, GF.UNIT);
+                    if (sum != GF.ZERO) return false;
+                }
+                return true;
+            });
         }
     }
 
@@ -75,52 +108,41 @@ public class Main {
             super(seed, n);
         }
 
-        public long[][] getMatrix() {
-            long[][] A = new long[n][];
-            for (int r = 0; r < n; ++r) {
-                A[r] = getRow(r);
-            }
-            return A;
-        }
-
-        public long[] getRow(int r) {
-            long[] row = new long[n];
-            Random rnd = new Random(seed + r);
-            for (int c = 0; c < n; ++c) {
-                row[c] = rnd.nextLong() & (GF.cardinality() - 1);
-            }
-            return row;
+        public void getRow(int r, long[] row) {
+            randomRow(r, row);
         }
     }
 
     static class RandomSingularMatrix extends Matrix {
-        long[] lastRow;
+        private final long[] lastRow;
 
+        /**
+         * The last row is a combination of the others, built once here so that every row source call
+         * only copies it. Blocks of rows are generated and combined in parallel into partial sums,
+         * which are then added up.
+         */
         RandomSingularMatrix(long seed, int n) {
             super(seed, n);
-            lastRow = new long[n];
-        }
-
-        public long[][] getMatrix() {
-            long[][] A = new long[n][];
-            for (int r = 0; r < n - 1; ++r) {
-                A[r] = getRow(r);
-                for (int j = 0; j < n; ++j) {
-                    lastRow[j] ^= GF.mul(A[r][j], r);
+            int blocks = Math.min(n - 1, 4 * ForkJoinPool.getCommonPoolParallelism());
+            lastRow = IntStream.range(0, blocks).parallel().mapToObj(b -> {
+                long[] sum = new long[n];
+                long[] row = new long[n];
+                for (int r = (int) ((long) b * (n - 1) / blocks); r < (long) (b + 1) * (n - 1) / blocks; ++r) {
+                    randomRow(r, row);
+                    for (int j = 0; j < n; ++j) {
+                        sum[j] ^= GF.mul(row[j], r);
+                    }
                 }
-            }
-            A[n-1] = lastRow;
-            return A;
+                return sum;
+            }).reduce((a, b) -> {
+                for (int j = 0; j < n; ++j) a[j] ^= b[j];
+                return a;
+            }).orElseGet(() -> new long[n]);
         }
 
-        public long[] getRow(int r) {
-            if (r == n - 1) return lastRow;
-            long[] row = new long[n];
-            Random rnd = new Random(seed + r);
-            for (int c = 0; c < n; ++c) {
-                row[c] = rnd.nextLong() & (GF.cardinality() - 1);
-            }
-            return row;
+        public void getRow(int r, long[] row) {
+            if (r == n - 1) System.arraycopy(lastRow, 0, row, 0, n);
+            else randomRow(r, row);
         }
     }
 
@@ -130,112 +152,403 @@ public class Main {
         PermutationMatrix(long seed, int n) {
             super(seed, n);
             perm = new int[n];
-        }
-
-        public long[][] getMatrix() {
-            long[][] A = new long[n][];
             for (int i = 0; i < n; ++i) perm[i] = i;
-            Random rnd = new Random(seed);
+            SplittableRandom rnd = new SplittableRandom(this.seed);
             for (int i = 1; i < n; ++i) {
                 int j = rnd.nextInt(i);
                 int t = perm[i];
                 perm[i] = perm[j];
                 perm[j] = t;
             }
-
-            for (int r = 0; r < n ; ++r) {
-                A[r] = getRow(r);
-            }
-            return A;
         }
 
-        public long[] getRow(int r) {
-            long[] row = new long[n];
+        public void getRow(int r, long[] row) {
+            Arrays.fill(row, GF.ZERO);
             row[perm[r]] = GF.UNIT;
-            return row;
         }
     }
 
     static void usage() {
-        System.out.println("Usage: java -jar MatrixInverse.jar [-s seed] [-p parallelism] [-check] [-SINGULAR] [-PERM] [-NOWAIT] [size]");
+        System.out.println("Usage: java [-Dinvertigo.metrics=true] -jar MatrixInverse.jar [-s seed] [-p parallelism] [-check] [-SINGULAR] [-PERM] [-NOWAIT] [-AFFINITY] [-BLOCK] [-SLICED] [-STREAM] [-AUTO] [-profile file] [-cache megabytes] [-OFFHEAP] [-repeat count] [-DET] [-trace file.json] [-tracesize records] [-checkpoint file] [-interval seconds] [-resume file] [size]");
+        System.out.println("       java -jar MatrixInverse.jar -sweep [sweep options], see -sweep -help");
         System.exit(1);
     }
 
-    public static void main(String[] args) {
+    /**
+     * Command line options of a single inversion
+     */
+    static class Options {
         int n = 1024;
-        int maxPar = Runtime.getRuntime().availableProcessors();
-        int nThreads = maxPar;
+        int nThreads = Runtime.getRuntime().availableProcessors();
         boolean check = false;
         long seed = System.currentTimeMillis() % 1000000l;
+        boolean seeded = false;
         boolean singular = false;
         boolean permutation = false;
         boolean nowait = false;
+        boolean block = false;
+        boolean affinity = false;
+        boolean det = false;
+        boolean sliced = false;
+        boolean stream = false;
+        boolean auto = false;
+        String profileFile = null;
+        long cacheSize = 0;
+        boolean offHeap = false;
+        int repeat = 2;
+        String traceFile = null;
+        int traceSize = Trace.DEFAULT_CAPACITY;
+        String checkpointFile = null;
+        String resumeFile = null;
+        double interval = 60;
 
-        for (int i = 0; i< args.length; ++i) {
-            String arg = args[i];
-            if (arg.length() == 0) usage();
-            if (arg.charAt(0) == '-') {
-                switch (args[i]) {
-                    case "-c":
-                        check = true;
-                        break;
-                    case "-p":
-                        if (++i == args.length) usage();
-                        nThreads = Integer.parseInt(args[i]);
-                        break;
-                    case "-s":
-                        if (++i == args.length) usage();
-                        seed = Long.parseLong(args[i]);
-                        break;
-                    case "-SINGULAR":
-                        singular = true;
-                        break;
-                    case "-PERM":
-                        permutation = true;
-                        break;
-                    case "-NOWAIT":
-                        nowait = true;
-                        break;
-                    default:
-                        usage();
+        /**
+         * Parse and cross-check the command line, print the usage and exit if it is invalid
+         */
+        static Options parse(String[] args) {
+            Options o = new Options();
+            try {
+                for (int i = 0; i< args.length; ++i) {
+                    String arg = args[i];
+                    if (arg.length() == 0) usage();
+                    if (arg.charAt(0) == '-') {
+                        switch (args[i]) {
+                            case "-c":
+                                o.check = true;
+                                break;
+                            case "-p":
+                                if (++i == args.length) usage();
+                                o.nThreads = Integer.parseInt(args[i]);
+                                break;
+                            case "-s":
+                                if (++i == args.length) usage();
+                                o.seed = Long.parseLong(args[i]);
+                                o.seeded = true;
+                                break;
+                            case "-SINGULAR":
+                                o.singular = true;
+                                break;
+                            case "-PERM":
+                                o.permutation = true;
+                                break;
+                            case "-NOWAIT":
+                                o.nowait = true;
+                                break;
+                            case "-AFFINITY":
+                                o.nowait = true;
+                                o.affinity = true;
+                                break;
+                            case "-BLOCK":
+                                o.block = true;
+                                break;
+                            case "-SLICED":
+                                o.sliced = true;
+                                break;
+                            case "-STREAM":
+                                o.nowait = true;
+                                o.stream = true;
+                                break;
+                            case "-AUTO":
+                                o.auto = true;
+                                break;
+                            case "-profile":
+                                if (++i == args.length) usage();
+                                o.profileFile = args[i];
+                                break;
+                            case "-cache":
+                                if (++i == args.length) usage();
+                                o.cacheSize = Long.parseLong(args[i]);
+                                break;
+                            case "-OFFHEAP":
+                                o.offHeap = true;
+                                break;
+                            case "-repeat":
+                                if (++i == args.length) usage();
+                                o.repeat = Integer.parseInt(args[i]);
+                                break;
+                            case "-DET":
+                                o.det = true;
+                                break;
+                            case "-trace":
+                                if (++i == args.length) usage();
+                                o.traceFile = args[i];
+                                break;
+                            case "-tracesize":
+                                if (++i == args.length) usage();
+                                o.traceSize = Integer.parseInt(args[i]);
+                                break;
+                            case "-checkpoint":
+                                if (++i == args.length) usage();
+                                o.checkpointFile = args[i];
+                                break;
+                            case "-interval":
+                                if (++i == args.length) usage();
+                                o.interval = Double.parseDouble(args[i]);
+                                break;
+                            case "-resume":
+                                if (++i == args.length) usage();
+                                o.resumeFile = args[i];
+                                break;
+                            default:
+                                usage();
+                                break;
+                        }
+                    }
+                    else {
+                        o.n = Integer.parseInt(args[i]);
                         break;
+                    }
                 }
             }
-            else {
-                n = Integer.parseInt(args[i]);
-                break;
+            catch (NumberFormatException ex) {
+                usage();
             }
+
+            // BlockInverse has no elimination steps to checkpoint
+            if (o.block && (o.resumeFile != null || o.checkpointFile != null)) usage();
+            // Nor does the forward elimination checkpoint, it is three times shorter anyway
+            if (o.det && (o.block || o.resumeFile != null || o.checkpointFile != null)) usage();
+            // Bit-sliced rows plug into the plain serial inversion and into NoWaitInverse
+            if (o.sliced && (o.block || o.nThreads > 0 && !o.nowait ||
+                    o.nThreads <= 0 && (o.det || o.resumeFile != null || o.checkpointFile != null))) usage();
+            // Streamed rows enter NoWaitInverse from the first step of an inversion
+            if (o.stream && (o.block || o.det || o.resumeFile != null || o.nThreads <= 0)) usage();
+            // The automatic choice replaces the engine options, -p only bounds its thread count
+            if (o.auto && (o.block || o.nowait || o.sliced || o.det || o.resumeFile != null ||
+                    o.checkpointFile != null)) usage();
+            // The cache wraps whole inversions of a matrix given up front, and writes neither checkpoints nor traces
+            if (o.cacheSize > 0 && (o.det || o.stream || o.resumeFile != null || o.checkpointFile != null ||
+                    o.traceFile != null || o.repeat <= 0)) usage();
+            return o;
         }
+    }
 
-        Matrix matrix;
-        if (singular) matrix = new RandomSingularMatrix(seed, n);
-        else if (permutation) matrix = new PermutationMatrix(seed, n);
-        else matrix = new RandomMatrix(seed, n);
-        long[][] A = matrix.getMatrix();
+    /**
+     * Load the checkpoint to resume from and take the matrix size, seed and kind from it
+     * @return the saved state, or {@code null} after reporting why it cannot be resumed
+     */
+    private static Checkpoint.State resume(Options o) {
+        Checkpoint.State state;
+        try {
+            state = Checkpoint.load(Paths.get(o.resumeFile));
+        }
+        catch (IOException ex) {
+            System.out.println("resume: " + ex);
+            return null;
+        }
+        catch (SingularMatrixException ex) {
+            System.out.println("resume: " + o.resumeFile + "  singular: rank " + ex.getRank() +
+                    " of leading " + (ex.getStep() + 1) + " rows");
+            return null;
+        }
+        // The checker regenerates the input matrix, which the checkpoint identifies
+        int kind = o.singular ? SINGULAR : o.permutation ? PERMUTATION : RANDOM;
+        if (o.seeded && o.seed != state.seed || (o.singular || o.permutation) && kind != state.kind) {
+            System.out.println("resume: " + o.resumeFile + " was taken for seed " + state.seed + " and kind " +
+                    state.kind + ", drop -s, -SINGULAR and -PERM to resume it");
+            return null;
+        }
+        o.seed = state.seed;
+        o.singular = state.kind == SINGULAR;
+        o.permutation = state.kind == PERMUTATION;
+        o.n = state.A.length;
+        System.out.println("resume: " + o.resumeFile + "  step: " + state.step + " of " + o.n);
+        return state;
+    }
 
-        long start = System.currentTimeMillis();
-        if (nThreads <= 0) {
-            System.out.print("SerialInverse:");
-            SerialInverse.invert(A);
+    /**
+     * Invert the same matrix repeatedly, every time after the first one served from an {@link InverseCache}
+     */
+    private static void invertCached(Options o, Matrix matrix, long[][] A, AutoInverse autoInverse) {
+        int par = Math.max(1, o.nThreads);
+        Consumer<long[][]> engine;
+        Metrics metrics = null;
+        if (o.auto) {
+            engine = autoInverse::invert;
+        }
+        else if (o.block) {
+            System.out.print("InverseCache: BlockInverse: threads: " + par);
+            engine = new BlockInverse(par)::invert;
+        }
+        else if (o.nThreads <= 0) {
+            System.out.print("InverseCache: SerialInverse:" + (o.sliced ? " sliced" : ""));
+            engine = o.sliced ? SerialInverse::invertSliced : SerialInverse::invert;
+        }
+        else if (o.nowait) {
+            System.out.print("InverseCache: NoWaitInverse: threads: " + o.nThreads + (o.affinity ? " affinity" : "") +
+                    (o.sliced ? " sliced" : ""));
+            NoWaitInverse inverse = new NoWaitInverse(o.nThreads, o.affinity);
+            inverse.setSliced(o.sliced);
+            metrics = inverse.getMetrics();
+            engine = inverse::invert;
+        }
+        else {
+            System.out.print("InverseCache: ParallelInverse: threads: " + o.nThreads);
+            ParallelInverse inverse = new ParallelInverse(o.nThreads);
+            metrics = inverse.getMetrics();
+            engine = inverse::invert;
+        }
+        System.out.println(" n: " + o.n + "  seed: " + o.seed);
+
+        InverseCache cache = new InverseCache(o.cacheSize << 20, o.offHeap);
+        long[][] original = A;
+        try {
+            for (int i = 0; i < o.repeat; ++i) {
+                A = new long[o.n][];
+                for (int r = 0; r < o.n; ++r) A[r] = original[r].clone();
+                long misses = cache.getMisses();
+                long start = System.currentTimeMillis();
+                cache.invert(A, engine);
+                boolean miss = cache.getMisses() > misses;
+                System.out.println("run: " + i + "  time: " + (System.currentTimeMillis() - start) + " ms  " +
+                        (miss ? "miss" : "hit"));
+                if (miss && metrics != null) metrics.print(System.out);
+            }
+        }
+        catch (SingularMatrixException ex) {
+            System.out.println("singular: rank " + ex.getRank() + " of leading " + (ex.getStep() + 1) + " rows");
+            System.out.println(cache);
+            return;
+        }
+        System.out.println(cache);
+        if (o.check) {
+            long end = System.currentTimeMillis();
+            boolean res = matrix.checkInverted(A);
+            System.out.println("check: " + (res ? "OK" : "FAIL") + " time: " + (System.currentTimeMillis() - end) + " ms");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("-sweep")) {
+            Sweep.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        Options o = Options.parse(args);
+        Checkpoint.State state = null;
+        if (o.resumeFile != null) {
+            state = resume(o);
+            if (state == null) return;
+        }
+
+        Matrix matrix;
+        if (o.singular) matrix = new RandomSingularMatrix(o.seed, o.n);
+        else if (o.permutation) matrix = new PermutationMatrix(o.seed, o.n);
+        else matrix = new RandomMatrix(o.seed, o.n);
+        long[][] A;
+        int[] perm = new int[o.n];
+        int from = 0;
+        if (state != null) {
+            A = state.A;
+            perm = state.perm;
+            from = state.step;
         }
         else {
-            if (nowait) {
-                System.out.print("NoWaitInverse: threads: " + nThreads);
-                new NoWaitInverse(nThreads).invert(A);
+            // Streamed rows are generated while the matrix is being inverted, which is timed as a whole
+            A = o.stream ? new long[o.n][] : matrix.getMatrix();
+        }
+
+        Checkpoint checkpoint = null;
+        if (o.checkpointFile != null) {
+            checkpoint = new Checkpoint(Paths.get(o.checkpointFile), (long) (1000 * o.interval), o.seed,
+                    o.singular ? SINGULAR : o.permutation ? PERMUTATION : RANDOM);
+        }
+
+        AutoInverse autoInverse = null;
+        if (o.auto) {
+            autoInverse = new AutoInverse(o.profileFile != null ? Paths.get(o.profileFile) : AutoInverse.defaultProfile(),
+                    o.nThreads);
+            // Calibrate, if needed, before the timing starts
+            System.out.print("AutoInverse: " + autoInverse.choose(o.n));
+        }
+
+        if (o.cacheSize > 0) {
+            invertCached(o, matrix, A, autoInverse);
+            return;
+        }
+
+        Metrics metrics = null;
+        Trace trace = null;
+        Echelon echelon = null;
+        long start = System.currentTimeMillis();
+        try {
+            if (o.auto) {
+                autoInverse.invert(A);
+            }
+            else if (o.block) {
+                System.out.print("BlockInverse: threads: " + Math.max(1, o.nThreads));
+                new BlockInverse(Math.max(1, o.nThreads)).invert(A);
+            }
+            else if (o.nThreads <= 0) {
+                System.out.print("SerialInverse:" + (o.sliced ? " sliced" : ""));
+                if (o.sliced) SerialInverse.invertSliced(A);
+                else if (o.det) echelon = SerialInverse.eliminate(A);
+                else SerialInverse.invert(A, perm, from, checkpoint);
             }
             else {
-                System.out.print("ParallelInverse: threads: " + nThreads);
-                new ParallelInverse(nThreads).invert(A);
+                if (o.nowait) {
+                    System.out.print("NoWaitInverse: threads: " + o.nThreads + (o.affinity ? " affinity" : "") +
+                            (o.sliced ? " sliced" : "") + (o.stream ? " streamed" : ""));
+                    NoWaitInverse engine = new NoWaitInverse(o.nThreads, o.affinity);
+                    engine.setSliced(o.sliced);
+                    metrics = engine.getMetrics();
+                    if (o.traceFile != null) engine.setTrace(trace = new Trace("NoWaitInverse", o.traceSize));
+                    engine.setCheckpoint(checkpoint);
+                    if (o.det) echelon = engine.eliminate(A);
+                    else if (o.stream) engine.invert(A, matrix::getRow, o.nThreads);
+                    else engine.invert(A, perm, from);
+                }
+                else {
+                    System.out.print("ParallelInverse: threads: " + o.nThreads);
+                    ParallelInverse engine = new ParallelInverse(o.nThreads);
+                    metrics = engine.getMetrics();
+                    if (o.traceFile != null) engine.setTrace(trace = new Trace("ParallelInverse", o.traceSize));
+                    engine.setCheckpoint(checkpoint);
+                    if (o.det) echelon = engine.eliminate(A);
+                    else engine.invert(A, perm, from);
+                }
             }
         }
+        catch (SingularMatrixException ex) {
+            System.out.println(" n: " + o.n + "  seed: " + o.seed + "  time: " + (System.currentTimeMillis() - start) +
+                    " ms  singular: rank " + ex.getRank() + " of leading " + (ex.getStep() + 1) + " rows");
+            return;
+        }
         long end = System.currentTimeMillis();
 
-        double score = 1000. * n * n * n / (end - start);
-        System.out.println(" n: " + n + "  seed: " + seed + "  time: " + (end - start) + " ms  score: " + (long)score + " ops/sec");
+        // Every elimination step updates n rows of n elements, a resumed run only does the remaining steps
+        double score = 1000. * (o.n - from) * o.n * o.n / (end - start);
+        System.out.println(" n: " + o.n + "  seed: " + o.seed + "  time: " + (end - start) + " ms  score: " + (long)score + " ops/sec" +
+                (from > 0 ? " over " + (o.n - from) + " steps" : "") +
+                (echelon != null ? "  " + echelon : ""));
+        if (metrics != null) metrics.print(System.out);
+
+        if (checkpoint != null) {
+            try {
+                checkpoint.close();
+            }
+            catch (IOException ex) {
+                System.out.println("checkpoint: " + ex);
+            }
+        }
 
-        if (check) {
+        if (o.check && echelon == null) {
             boolean res = matrix.checkInverted(A);
             System.out.println("check: " + (res ? "OK" : "FAIL") + " time: " + (System.currentTimeMillis() - end) + " ms");
         }
+
+        if (trace != null) {
+            try {
+                trace.write(Paths.get(o.traceFile));
+                System.out.println("trace: " + o.traceFile);
+                long dropped = trace.getDropped();
+                if (dropped > 0) {
+                    System.out.println("trace: warning: " + dropped + " oldest records dropped, raise -tracesize to keep them");
+                }
+            }
+            catch (IOException ex) {
+                System.out.println("trace: " + ex);
+            }
+        }
     }
 }
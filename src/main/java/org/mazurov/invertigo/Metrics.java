@@ -0,0 +1,185 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Scheduling metrics of the parallel inversion engines.
+ * Collection is switched on with {@code -Dinvertigo.metrics=true}. Every probe is guarded by
+ * {@link #ENABLED}, which is a static final constant, so with collection off the JIT folds
+ * the probes away together with the JFR events.
+ */
+public class Metrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("invertigo.metrics");
+
+    /**
+     * Counters owned and updated by a single worker thread
+     */
+    static class Worker {
+        final String name;
+        final short tag;        // 1 + pool index of a fork/join worker, 0 for other threads
+        long busyNanos;
+        long barrierNanos;
+        long tasks;
+        long stolen;
+        long casFailures;
+
+        Worker(String name) {
+            this.name = name;
+            Thread t = Thread.currentThread();
+            tag = t instanceof ForkJoinWorkerThread ? (short) (1 + ((ForkJoinWorkerThread) t).getPoolIndex()) : 0;
+        }
+    }
+
+    @Name("org.mazurov.invertigo.Pivot")
+    @Label("Pivot Normalization")
+    @Category("Invertigo")
+    static class PivotEvent extends Event {
+        @Label("Step")
+        int step;
+    }
+
+    @Name("org.mazurov.invertigo.BarrierWait")
+    @Label("Barrier Wait")
+    @Category("Invertigo")
+    static class BarrierWaitEvent extends Event {
+        @Label("Step")
+        int step;
+    }
+
+    @Name("org.mazurov.invertigo.WorkerSummary")
+    @Label("Worker Summary")
+    @Category("Invertigo")
+    static class WorkerEvent extends Event {
+        @Label("Engine")
+        String engine;
+        @Label("Thread")
+        String thread;
+        @Label("Busy")
+        @Timespan
+        long busy;
+        @Label("Idle")
+        @Timespan
+        long idle;
+        @Label("Barrier Wait")
+        @Timespan
+        long barrier;
+        @Label("Tasks Executed")
+        long tasks;
+        @Label("Tasks Stolen")
+        long stolen;
+        @Label("CAS Failures")
+        long casFailures;
+    }
+
+    private final String engine;
+    private final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> local = ThreadLocal.withInitial(() -> {
+        Worker w = new Worker(Thread.currentThread().getName());
+        workers.add(w);
+        return w;
+    });
+    private long startNanos;
+    private long wallNanos;
+    private long poolSteals;
+    private long pivots;
+    private long pivotNanos;
+    private long pivotMaxNanos;
+
+    Metrics(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return counters of the calling thread
+     */
+    Worker worker() {
+        return local.get();
+    }
+
+    void start() {
+        workers.clear();
+        pivots = pivotNanos = pivotMaxNanos = 0;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Account for one pivot normalization.
+     * Base rows are normalized one at a time, so no synchronization is needed beyond
+     * the happens-before edges the engines already establish between steps.
+     * @param step elimination step
+     * @param start {@code System.nanoTime()} at the beginning of the normalization
+     */
+    void pivot(int step, long start) {
+        long time = System.nanoTime() - start;
+        ++pivots;
+        pivotNanos += time;
+        pivotMaxNanos = Math.max(pivotMaxNanos, time);
+    }
+
+    /**
+     * @param steals total steal count reported by the pool, or {@code 0} if not applicable
+     */
+    void stop(long steals) {
+        wallNanos = System.nanoTime() - startNanos;
+        poolSteals = steals;
+        for (Worker w : workers) {
+            WorkerEvent event = new WorkerEvent();
+            if (event.shouldCommit()) {
+                event.engine = engine;
+                event.thread = w.name;
+                event.busy = w.busyNanos;
+                event.idle = idle(w);
+                event.barrier = w.barrierNanos;
+                event.tasks = w.tasks;
+                event.stolen = w.stolen;
+                event.casFailures = w.casFailures;
+                event.commit();
+            }
+        }
+    }
+
+    private long idle(Worker w) {
+        return Math.max(0, wallNanos - w.busyNanos - w.barrierNanos);
+    }
+
+    private static String ms(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+
+    public void print(PrintStream out) {
+        out.println(engine + " metrics: wall: " + ms(wallNanos) + " ms  pool steals: " + poolSteals +
+                "  pivots: " + pivots + " avg: " + (pivots == 0 ? 0 : pivotNanos / pivots / 1000) +
+                " us  max: " + pivotMaxNanos / 1000 + " us");
+        out.println(String.format("  %-32s %10s %10s %10s %10s %8s %8s",
+                "thread", "busy ms", "idle ms", "barrier ms", "tasks", "stolen", "cas fail"));
+        for (Worker w : workers) {
+            out.println(String.format("  %-32s %10s %10s %10s %10d %8d %8d",
+                    w.name, ms(w.busyNanos), ms(idle(w)), ms(w.barrierNanos), w.tasks, w.stolen, w.casFailures));
+        }
+    }
+}
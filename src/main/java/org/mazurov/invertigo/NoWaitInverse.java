@@ -18,21 +18,121 @@ package org.mazurov.invertigo;
 
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntFunction;
 
 public class NoWaitInverse {
 
+    static final int SCALE_GRAIN = 512;     // Columns per subtask of the split base row normalization
+
     private int nThreads;
-    private ForkJoinPool executor;
+    private boolean affinity;
+    private ExecutorService executor;
+    private AffinityExecutor workers;
     private CountDownLatch finished;
     private volatile RuntimeException exception;
     private long[][] A;
     private int[] perm;
+    private final Metrics metrics = Metrics.ENABLED ? new Metrics("NoWaitInverse") : null;
+    private Trace trace;
+    private boolean sliced;
+    private boolean forward;
+    private int[] pos;
+    private long det;
+    private Checkpoint checkpoint;
+    private AtomicIntegerArray done;
+    private volatile Cut cut;
 
     public NoWaitInverse(int par) {
         nThreads = par;
     }
 
-    class Task extends ForkJoinTask {
+    /**
+     * @param par number of worker threads
+     * @param affinity if {@code true}, every row block has a home worker that runs all its tasks
+     *                 unless another worker runs out of work; otherwise tasks are work-stolen freely
+     */
+    public NoWaitInverse(int par, boolean affinity) {
+        nThreads = par;
+        this.affinity = affinity;
+    }
+
+    /**
+     * @return scheduling metrics of the last inversion, or {@code null} unless {@link Metrics#ENABLED}
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record every task of subsequent inversions into the given trace
+     * @param trace execution trace, or {@code null} to stop tracing
+     */
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Store rows in the bit-sliced form during subsequent computations, see {@link BitSlice}
+     * @param sliced whether to use bit-sliced rows
+     */
+    public void setSliced(boolean sliced) {
+        this.sliced = sliced;
+    }
+
+    /**
+     * Save consistent cuts of the row step frontier in subsequent inversions
+     * @param checkpoint periodic checkpoint, or {@code null} to stop checkpointing
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Snapshot of all rows taken without stopping the dataflow.
+     * Once a cut is started, every row is copied right before its next task modifies it,
+     * or right away if the row is complete. A row can only get ahead of the step its copy was
+     * taken at by one step if it is the base row of that step, since the next update of
+     * a base row waits for all other rows to complete its step.
+     */
+    class Cut {
+        final long[][] rows = new long[A.length][];
+        final int[] frontier = new int[A.length];
+        final int[] pivots = new int[A.length];
+        final AtomicIntegerArray captured = new AtomicIntegerArray(A.length);
+        final AtomicInteger remaining = new AtomicInteger(A.length);
+
+        /**
+         * Copy a row unless it is already part of the cut
+         * @param r row index
+         * @param steps number of steps the row has completed
+         */
+        void capture(int r, int steps) {
+            if (captured.get(r) != 0 || !captured.compareAndSet(r, 0, 1)) return;
+            rows[r] = sliced ? BitSlice.unslice(A[r], A.length) : A[r].clone();
+            frontier[r] = steps;
+            pivots[r] = steps > r ? perm[r] : r;
+            if (remaining.decrementAndGet() == 0) {
+                cut = null;
+                checkpoint.save(rows, frontier, pivots);
+            }
+        }
+    }
+
+    /**
+     * Start a cut and add the rows that have no tasks left
+     */
+    private Cut startCut() {
+        Cut c = new Cut();
+        cut = c;
+        for (int r = 0; r < A.length; ++r) {
+            if (done.get(r) != 0) c.capture(r, A.length);
+        }
+        return c;
+    }
+
+    class Task extends ForkJoinTask<Void> {
+        private static final long serialVersionUID = 1L;
 
         int             idx;
         int             step;
@@ -40,9 +140,9 @@ public class NoWaitInverse {
         Task            baseTask, nextTask;
         Task[]          curTasks;
 
-        Task(int i, Task[] tasks) {
+        Task(int i, int s, Task[] tasks) {
             idx = i;
-            step = 0;
+            step = s;
             curTasks = tasks;
             state = new AtomicInteger(1);
         }
@@ -55,116 +155,379 @@ public class NoWaitInverse {
         }
 
         @Override
-        public Object getRawResult() {
+        public Void getRawResult() {
             return null;
         }
 
         @Override
-        protected void setRawResult(Object value) {
+        protected void setRawResult(Void value) {
+        }
+
+        /**
+         * Make the task runnable: on the home worker of its row in the affinity mode,
+         * or on the current fork/join worker, or in the pool when released by a row loader
+         */
+        void schedule() {
+            if (workers != null) {
+                workers.execute(home(idx), this::exec);
+            }
+            else {
+                // The forking worker rides in the task tag, so stealing costs Task no field
+                if (Metrics.ENABLED) setForkJoinTaskTag(metrics.worker().tag);
+                if (getPool() == executor) fork();
+                else ((ForkJoinPool) executor).execute(this);
+            }
         }
 
         void send() {
+            if (Metrics.ENABLED) {
+                // Count contention on the dependency counter with an explicit CAS loop
+                Metrics.Worker counters = metrics.worker();
+                int s = state.get();
+                while (!state.compareAndSet(s, s - 1)) {
+                    ++counters.casFailures;
+                    s = state.get();
+                }
+                if (s == 1) {
+                    schedule();
+                }
+                return;
+            }
             if (state.decrementAndGet() == 0) {
-                fork();
+                schedule();
             }
         }
 
         @Override
         public boolean exec() {
+            if (exception != null) {
+                // Cancelled: do not touch the matrix and do not release dependent tasks
+                return true;
+            }
+            Trace trace = NoWaitInverse.this.trace;
+            long start = Metrics.ENABLED || trace != null ? System.nanoTime() : 0;
             try {
+                if (done != null) {
+                    Cut c = cut;
+                    if (c == null && step == idx && checkpoint.due()) c = startCut();
+                    if (c != null) c.capture(idx, step);
+                }
+
                 long[] curRow = A[idx];
-                boolean lastTask = step + 1 == A.length;
+                // The forward elimination leaves a row alone once it has been a base row
+                boolean lastTask = forward ? step == idx : step + 1 == A.length;
                 if (step == idx) {
+                    Metrics.PivotEvent event = null;
+                    if (Metrics.ENABLED) {
+                        event = new Metrics.PivotEvent();
+                        event.begin();
+                    }
+
                     // Compute
-                    perm[idx] = idx;
-                    for (int c = idx; c < A.length; ++c) {
-                        if (curRow[c] != GF.ZERO) {
-                            perm[idx] = c;
-                            break;
+                    int pivot = idx;
+                    if (forward) {
+                        // Dependent rows above do not take a pivot position
+                        pivot = pos[idx] = idx == 0 ? 0 : pos[idx - 1] + (perm[idx - 1] >= 0 ? 1 : 0);
+                    }
+                    int colIdx = perm[idx] = sliced ? BitSlice.findPivot(curRow, pivot) : SerialInverse.findPivot(curRow, pivot);
+                    if (colIdx < 0) {
+                        if (!forward) throw new SingularMatrixException(idx);
+                        det = GF.ZERO;
+                    }
+                    else if (sliced) {
+                        if (forward) det = GF.mul(det, BitSlice.get(curRow, colIdx));
+                        BitSlice.normalize(curRow, pivot, colIdx);
+                    }
+                    else {
+                        if (forward) det = GF.mul(det, curRow[colIdx]);
+                        int lo = forward ? pivot + 1 : 0;
+                        if (workers == null && curRow.length - lo >= 2 * SCALE_GRAIN) {
+                            long m = GF.rev(curRow[colIdx]);
+                            curRow[colIdx] = curRow[pivot];
+                            curRow[pivot] = GF.UNIT;
+                            new Scale(curRow, m, lo, curRow.length).invoke();
+                        }
+                        else {
+                            SerialInverse.normalize(curRow, pivot, colIdx, lo);
                         }
                     }
-
-                    int colIdx = perm[idx];
-                    long m = GF.rev(curRow[colIdx]);
-                    curRow[colIdx] = curRow[idx];
-                    curRow[idx] = GF.UNIT;
-                    for (int c = 0; c < curRow.length; ++c) {
-                        curRow[c] = GF.mul(curRow[c], m);
+                    if (Metrics.ENABLED) {
+                        metrics.pivot(idx, start);
+                        event.step = idx;
+                        event.commit();
                     }
 
                     // Notify
                     Task base = this;
-                    if (!lastTask) {
+                    if (forward ? idx + 1 < A.length : !lastTask) {
                         Task[] next = new Task[A.length];
-                        for (int i = 0; i < next.length; ++i) {
+                        for (int i = forward ? idx + 1 : 0; i < next.length; ++i) {
                             next[i] = new Task(curTasks[i], next);
                             curTasks[i].nextTask = next[i];
                         }
-                        base = next[idx];
+                        if (!forward) base = next[idx];
                     }
                     for (Task t : curTasks) {
-                        if (t != this) {
+                        if (t != this && t != null) {
                             t.baseTask = base;
                             t.send();
                         }
                     }
                 } else {
                     // Compute
-                    int colIdx = perm[step];
-                    long m = curRow[colIdx];
-                    curRow[colIdx] = curRow[step];
-                    curRow[step] = GF.ZERO;
-                    long[] baseRow = A[baseTask.idx];
-                    for (int c = 0; c < curRow.length; ++c) {
-                        curRow[c] = GF.sub(curRow[c], GF.mul(baseRow[c], m));
+                    if (sliced) {
+                        if (perm[step] >= 0) BitSlice.updateRow(curRow, A[step], forward ? pos[step] : step, perm[step]);
+                    }
+                    else if (!forward) {
+                        SerialInverse.updateRow(curRow, A[step], step, perm[step]);
+                    }
+                    else if (perm[step] >= 0) {
+                        SerialInverse.updateRow(curRow, A[step], pos[step], perm[step], pos[step] + 1);
                     }
 
                     // Notify
                     if (!lastTask) {
-                        baseTask.send();
+                        if (!forward) baseTask.send();
                         nextTask.send();
                     }
                 }
 
-                if (lastTask) finished.countDown();
+                if (trace != null) {
+                    Trace.record(trace.buffer(), step == idx ? Trace.PIVOT : Trace.UPDATE, idx, step, start, System.nanoTime());
+                }
+                if (Metrics.ENABLED) {
+                    Metrics.Worker counters = metrics.worker();
+                    counters.busyNanos += System.nanoTime() - start;
+                    ++counters.tasks;
+                    if (workers != null ? Thread.currentThread() != workers.worker(home(idx)) :
+                            getForkJoinTaskTag() != 0 && getForkJoinTaskTag() != counters.tag) ++counters.stolen;
+                }
+                if (lastTask) {
+                    if (done != null) {
+                        done.set(idx, 1);
+                        Cut c = cut;
+                        if (c != null) c.capture(idx, A.length);
+                    }
+                    finished.countDown();
+                }
+            }
+            catch (RuntimeException ex) {
+                abort(ex);
+                return false;
             }
             catch (Throwable t) {
-                exception = new RuntimeException("ERROR", t);
-                while (finished.getCount() > 0) finished.countDown();
+                abort(new RuntimeException("ERROR", t));
                 return false;
             }
             return true;
         }
     }
 
+    /**
+     * Normalization of a column range of the base row.
+     * The base row gates all tasks of the next step, so it is split among fork/join workers.
+     */
+    static class Scale extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final long[] row;
+        final long m;
+        final int lo;
+        final int hi;
+
+        Scale(long[] row, long m, int lo, int hi) {
+            this.row = row;
+            this.m = m;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > SCALE_GRAIN) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Scale(row, m, lo, mid), new Scale(row, m, mid, hi));
+                return;
+            }
+            for (int c = lo; c < hi; ++c) {
+                row[c] = GF.mul(row[c], m);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the worker owning the given row in the affinity mode
+     */
+    private int home(int row) {
+        return (int) ((long) row * nThreads / A.length);
+    }
+
+    /**
+     * Record the first failure, discard all queued tasks and release the waiting caller
+     * @param ex failure cause
+     */
+    private synchronized void abort(RuntimeException ex) {
+        if (exception == null) {
+            exception = ex;
+        }
+        executor.shutdownNow();
+        while (finished.getCount() > 0) finished.countDown();
+    }
+
+    /**
+     * In-place matrix inversion
+     * @param a input-output matrix
+     * throws {@code SingularMatrixException} for a singular matrix, the content of which is undefined then
+     */
     public void invert(long[][] a) {
+        invert(a, new int[a.length], 0);
+    }
+
+    /**
+     * In-place matrix inversion starting from a given step
+     * @param a input-output matrix with all rows having completed steps before {@code from}
+     * @param p pivot columns, filled in for steps before {@code from}
+     * @param from first step to execute
+     * throws {@code SingularMatrixException} for a singular matrix, the content of which is undefined then
+     */
+    public void invert(long[][] a, int[] p, int from) {
+        forward = false;
+        if (from < a.length) {
+            run(a, p, from, null, 0);
+        }
+        SerialInverse.permute(a, p);
+    }
+
+    /**
+     * In-place inversion of a matrix the rows of which are loaded while it is being inverted.
+     * Loader threads take row indices in increasing order and every row enters the dataflow
+     * as soon as it is loaded, so loading overlaps with the elimination steps of the rows
+     * loaded before. A single loader suits a sequential reader, several loaders a generator.
+     * @param a output matrix, the rows of which are filled in as they are loaded
+     * @param source row loader, called once for every row
+     * @param loaders number of loader threads
+     * throws {@code SingularMatrixException} for a singular matrix, the content of which is undefined then
+     */
+    public void invert(long[][] a, IntFunction<long[]> source, int loaders) {
+        forward = false;
+        int[] p = new int[a.length];
+        run(a, p, 0, source, Math.max(1, loaders));
+        SerialInverse.permute(a, p);
+    }
+
+    /**
+     * Forward elimination only, see {@link SerialInverse#eliminate(long[][])}
+     * @param a input matrix, destroyed
+     * @return rank and determinant
+     */
+    public Echelon eliminate(long[][] a) {
+        forward = true;
+        pos = new int[a.length];
+        det = GF.UNIT;
+        run(a, new int[a.length], 0, null, 0);
+        int rank = 0;
+        for (int colIdx : perm) {
+            if (colIdx >= 0) ++rank;
+        }
+        return new Echelon(rank, det);
+    }
+
+    private void run(long[][] a, int[] p, int from, IntFunction<long[]> source, int loaders) {
         A = a;
+        perm = p;
+        exception = null;
         finished = new CountDownLatch(A.length);
-        perm = new int[A.length];
+        done = checkpoint != null && !forward ? new AtomicIntegerArray(A.length) : null;
+        cut = null;
 
-        executor = new ForkJoinPool(nThreads);
+        if (affinity) {
+            executor = workers = new AffinityExecutor(nThreads, AffinityExecutor.NUMA_NODES);
+            // Streamed rows are allocated by the loaders instead
+            if (source == null) {
+                try {
+                    // First touch: every worker copies its own rows into memory local to it
+                    workers.runOnEach(w -> {
+                        for (int r = 0; r < A.length; ++r) {
+                            if (home(r) == w) A[r] = sliced ? BitSlice.slice(A[r]) : A[r].clone();
+                        }
+                    });
+                }
+                catch (InterruptedException ex) {
+                    executor.shutdownNow();
+                    throw new RuntimeException("INTERRUPTED", ex);
+                }
+            }
+        }
+        else {
+            executor = new ForkJoinPool(nThreads);
+            workers = null;
+            if (sliced && source == null) BitSlice.slice(A);
+        }
+        if (Metrics.ENABLED) metrics.start();
         Task[] tasks = new Task[A.length];
         for (int i = 0; i < A.length; ++i) {
-            tasks[i] = new Task(i, tasks);
+            tasks[i] = new Task(i, from, tasks);
+        }
+        Thread[] threads = null;
+        if (source != null) {
+            // The first tasks of every row also wait for the row to be loaded
+            for (Task t : tasks) {
+                if (t.idx != from) t.state.set(2);
+            }
+            Task[] first = tasks;
+            AtomicInteger nextRow = new AtomicInteger();
+            threads = new Thread[loaders];
+            for (int t = 0; t < threads.length; ++t) {
+                threads[t] = new Thread(() -> {
+                    try {
+                        for (int r; exception == null && (r = nextRow.getAndIncrement()) < A.length; ) {
+                            long[] row = source.apply(r);
+                            A[r] = sliced ? BitSlice.slice(row) : row;
+                            first[r].send();
+                        }
+                    }
+                    catch (RuntimeException ex) {
+                        abort(ex);
+                    }
+                }, "RowLoader-" + t);
+                threads[t].start();
+            }
+        }
+        else if (workers != null) {
+            tasks[from].schedule();
+        }
+        else {
+            ((ForkJoinPool) executor).execute(tasks[from]);
         }
-        executor.execute(tasks[0]);
         tasks = null;
 
         try {
             finished.await();
         }
         catch (InterruptedException ex) {
-            exception = new RuntimeException("INTERRUPTED", ex);
+            abort(new RuntimeException("INTERRUPTED", ex));
+        }
+        if (threads != null) {
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                }
+                catch (InterruptedException ie) {}
+            }
         }
         executor.shutdown();
-        if (exception != null) throw exception;
-
-        for (int r = perm.length - 1; r >= 0; --r) {
-            if (perm[r] != r) {
-                long[] t = A[r];
-                A[r] = A[perm[r]];
-                A[perm[r]] = t;
+        if (exception != null || Metrics.ENABLED) {
+            // Wait for tasks already running to observe cancellation and leave the matrix alone,
+            // or to publish their counters
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException ie) {}
+            if (Metrics.ENABLED) {
+                metrics.stop(workers != null ? workers.getStealCount() : ((ForkJoinPool) executor).getStealCount());
             }
+            if (exception != null) throw exception;
         }
+        if (sliced) BitSlice.unslice(A);
     }
 }
@@ -16,46 +16,96 @@
 
 package org.mazurov.invertigo;
 
-import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Phaser;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class ParallelInverse {
     private int nThreads;
-    private CyclicBarrier barrier;
+    private Phaser barrier;
     private volatile RuntimeException error;
     private AtomicLong count;
     private long[][] A;
     private int[] perm;
+    private boolean forward;
+    private int[] pos;
+    private long det;
+    private final Metrics metrics = Metrics.ENABLED ? new Metrics("ParallelInverse") : null;
+    private Trace trace;
+    private Checkpoint checkpoint;
 
     public ParallelInverse(int par) {
         nThreads = par;
     }
 
+    /**
+     * @return scheduling metrics of the last inversion, or {@code null} unless {@link Metrics#ENABLED}
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record pivot, update and barrier phases of every thread in subsequent inversions
+     * @param trace execution trace, or {@code null} to stop tracing
+     */
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Save the matrix between elimination steps in subsequent inversions
+     * @param checkpoint periodic checkpoint, or {@code null} to stop checkpointing
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
     private void processBaseRow(int k) {
-        // Find a non-zero element in the base row
-        perm[k] = k;
+        long start = 0;
+        Metrics.PivotEvent event = null;
+        if (Metrics.ENABLED || trace != null) {
+            start = System.nanoTime();
+        }
+        if (Metrics.ENABLED) {
+            event = new Metrics.PivotEvent();
+            event.begin();
+        }
+
         long[] baseRow = A[k];
-        for (int c = k; c < A.length; ++c) {
-            if (baseRow[c] != GF.ZERO) {
-                perm[k] = c;
-                break;
+        if (forward) {
+            // Dependent rows above do not take a pivot position
+            int p = pos[k] = k == 0 ? 0 : pos[k - 1] + (perm[k - 1] >= 0 ? 1 : 0);
+            int colIdx = perm[k] = SerialInverse.findPivot(baseRow, p);
+            if (colIdx < 0) {
+                det = GF.ZERO;
             }
+            else {
+                det = GF.mul(det, baseRow[colIdx]);
+                SerialInverse.normalize(baseRow, p, colIdx, p + 1);
+            }
+        }
+        else {
+            perm[k] = SerialInverse.processBaseRow(baseRow, k);
         }
 
-        // Process the base row
-        int colIdx = perm[k];
-        long m = GF.rev(baseRow[colIdx]);
-        baseRow[colIdx] = baseRow[k];
-        baseRow[k] = GF.UNIT;
-        for (int c = 0; c < baseRow.length; ++c) {
-            baseRow[c] = GF.mul(baseRow[c], m);
+        if (Metrics.ENABLED) {
+            metrics.pivot(k, start);
+            event.step = k;
+            event.commit();
+        }
+        if (trace != null) {
+            Trace.record(trace.buffer(), Trace.PIVOT, k, k, start, System.nanoTime());
         }
     }
 
-    private void runDynamicSchedule(int id) {
+    private void runDynamicSchedule(int id, int from) {
+        Metrics.Worker counters = Metrics.ENABLED ? metrics.worker() : null;
+        Trace.Buffer events = trace != null ? trace.buffer() : null;
+        long start = 0;
+        long phase = events != null ? System.nanoTime() : 0;
         try {
-            if (id == 0) {
-                processBaseRow(0);
+            if (id == 0 && from < A.length) {
+                processBaseRow(from);
             }
             int step = -1;
             while (error == null) {
@@ -63,52 +113,128 @@ public class ParallelInverse {
                 int k = (int) (task / A.length);
                 int l = (int) (task % A.length);
                 if (k != step) {
+                    if (events != null && step >= 0) {
+                        long now = System.nanoTime();
+                        Trace.record(events, Trace.UPDATE, -1, step, phase, now);
+                        phase = now;
+                    }
                     if (k == A.length) return;
-                    barrier.await();
+                    if (Metrics.ENABLED) {
+                        Metrics.BarrierWaitEvent event = new Metrics.BarrierWaitEvent();
+                        event.begin();
+                        long wait = System.nanoTime();
+                        int arrived = barrier.arriveAndAwaitAdvance();
+                        counters.barrierNanos += System.nanoTime() - wait;
+                        event.step = k;
+                        event.commit();
+                        if (arrived < 0) return;
+                    }
+                    else if (barrier.arriveAndAwaitAdvance() < 0) return;
                     step = k;
+                    if (events != null) {
+                        long now = System.nanoTime();
+                        Trace.record(events, Trace.BARRIER, -1, step, phase, now);
+                        phase = now;
+                    }
                 }
+                if (Metrics.ENABLED) start = System.nanoTime();
 
                 // Update row
                 int r = (k + l + 1) % A.length;
-                if (r == k) continue;
-                long[] baseRow = A[k];
-                int colIdx = perm[k];
-                long[] curRow = A[r];
-                long m = curRow[colIdx];
-                curRow[colIdx] = curRow[k];
-                curRow[k] = GF.ZERO;
-                for (int c = 0; c < curRow.length; ++c) {
-                    curRow[c] = GF.sub(curRow[c], GF.mul(baseRow[c], m));
+                if (r == k || forward && r < k) {
+                    if (Metrics.ENABLED) counters.busyNanos += System.nanoTime() - start;
+                    continue;
+                }
+                if (!forward) {
+                    SerialInverse.updateRow(A[r], A[k], k, perm[k]);
+                }
+                else if (perm[k] >= 0) {
+                    SerialInverse.updateRow(A[r], A[k], pos[k], perm[k], pos[k] + 1);
                 }
 
                 if (r == k + 1) processBaseRow(r);
+
+                if (Metrics.ENABLED) {
+                    counters.busyNanos += System.nanoTime() - start;
+                    ++counters.tasks;
+                }
             }
         }
         catch (RuntimeException t) {
-            if (error == null) {
-                error = t;
-                // Notify other threads waiting on the barrier
-                Thread.currentThread().interrupt();
-                try {
-                    barrier.await();
-                }
-                catch (Exception ex) {}
-            }
+            cancel(t);
+        }
+    }
+
+    /**
+     * Record the first failure and release all threads, both those waiting on the barrier
+     * and those yet to arrive, so that no more work is done on a doomed matrix
+     * @param t failure cause
+     */
+    private synchronized void cancel(RuntimeException t) {
+        if (error == null) {
+            error = t;
         }
-        catch (Exception ex) {}
+        barrier.forceTermination();
     }
 
     public void invert(long[][] a) {
+        invert(a, new int[a.length], 0);
+    }
+
+    /**
+     * In-place matrix inversion starting from a given step
+     * @param a input-output matrix with all rows having completed steps before {@code from}
+     * @param p pivot columns, filled in for steps before {@code from}
+     * @param from first step to execute
+     * throws {@code SingularMatrixException} for a singular matrix
+     */
+    public void invert(long[][] a, int[] p, int from) {
+        forward = false;
+        run(a, p, from);
+        SerialInverse.permute(A, perm);
+    }
+
+    /**
+     * Forward elimination only, see {@link SerialInverse#eliminate(long[][])}
+     * @param a input matrix, destroyed
+     * @return rank and determinant
+     */
+    public Echelon eliminate(long[][] a) {
+        forward = true;
+        pos = new int[a.length];
+        det = GF.UNIT;
+        run(a, new int[a.length], 0);
+        int rank = 0;
+        for (int colIdx : perm) {
+            if (colIdx >= 0) ++rank;
+        }
+        return new Echelon(rank, det);
+    }
+
+    private void run(long[][] a, int[] p, int from) {
         A = a;
-        perm = new int[A.length];
+        perm = p;
 
-        count = new AtomicLong(0);
-        barrier = new CyclicBarrier(nThreads);
+        count = new AtomicLong((long) from * A.length);
+        error = null;
+        Checkpoint cp = forward ? null : checkpoint;
+        barrier = new Phaser(nThreads) {
+            @Override
+            protected boolean onAdvance(int phase, int parties) {
+                // All threads are parked here: rows have completed the previous steps
+                // and the base row of the next one has been normalized
+                if (cp != null && cp.due()) {
+                    cp.save(A, from + phase, true, perm);
+                }
+                return false;
+            }
+        };
 
+        if (Metrics.ENABLED) metrics.start();
         Thread[] threads = new Thread[nThreads];
         for (int t = 0; t < threads.length; ++t) {
             final int id = t;
-            Thread thread = new Thread(() -> runDynamicSchedule(id));
+            Thread thread = new Thread(() -> runDynamicSchedule(id, from));
             threads[t] = thread;
             thread.start();
         }
@@ -121,16 +247,9 @@ public class ParallelInverse {
         catch (InterruptedException ie) {
             ie.printStackTrace();
         }
+        if (Metrics.ENABLED) metrics.stop(0);
         if (error != null) {
             throw error;
         }
-
-        for (int r = perm.length - 1; r >= 0; --r) {
-            if (perm[r] != r) {
-                long[] t = A[r];
-                A[r] = A[perm[r]];
-                A[perm[r]] = t;
-            }
-        }
     }
 }
@@ -18,54 +18,177 @@ package org.mazurov.invertigo;
 
 public class SerialInverse {
 
+    /**
+     * Find a non-zero element in the base row
+     * @param baseRow base row
+     * @param k first column to search
+     * @return the pivot column, or {@code -1} if columns {@code k} and above are all zero
+     */
+    static int findPivot(long[] baseRow, int k) {
+        for (int c = k; c < baseRow.length; ++c) {
+            if (baseRow[c] != GF.ZERO) return c;
+        }
+        return -1;
+    }
+
+    /**
+     * Swap the pivot into column {@code k} and scale the base row so that the pivot becomes one
+     * @param baseRow base row
+     * @param k elimination step, or pivot position when the elimination skips dependent rows
+     * @param colIdx pivot column
+     * @param lo first column to scale, columns below it are left as they are
+     */
+    static void normalize(long[] baseRow, int k, int colIdx, int lo) {
+        long m = GF.rev(baseRow[colIdx]);
+        baseRow[colIdx] = baseRow[k];
+        baseRow[k] = GF.UNIT;
+        for (int c = lo; c < baseRow.length; ++c) {
+            baseRow[c] = GF.mul(baseRow[c], m);
+        }
+    }
+
+    /**
+     * Find a non-zero element in the base row and normalize the row
+     * @param baseRow row {@code k} of the matrix
+     * @param k elimination step
+     * @return the pivot column
+     * throws {@code SingularMatrixException} if there is no non-zero element in columns {@code k} and above
+     */
+    static int processBaseRow(long[] baseRow, int k) {
+        int colIdx = findPivot(baseRow, k);
+        if (colIdx < 0) throw new SingularMatrixException(k);
+        normalize(baseRow, k, colIdx, 0);
+        return colIdx;
+    }
+
+    /**
+     * Eliminate the pivot column of step {@code k} from a row
+     * @param curRow row to update
+     * @param baseRow normalized base row
+     * @param k elimination step
+     * @param colIdx pivot column
+     */
+    static void updateRow(long[] curRow, long[] baseRow, int k, int colIdx) {
+        updateRow(curRow, baseRow, k, colIdx, 0);
+    }
+
+    /**
+     * Eliminate the pivot column from a row, updating columns {@code lo} and above only
+     * @param curRow row to update
+     * @param baseRow normalized base row
+     * @param k elimination step, or pivot position when the elimination skips dependent rows
+     * @param colIdx pivot column
+     * @param lo first column to update
+     */
+    static void updateRow(long[] curRow, long[] baseRow, int k, int colIdx, int lo) {
+        long m = curRow[colIdx];
+        curRow[colIdx] = curRow[k];
+        curRow[k] = GF.ZERO;
+        if (m == GF.ZERO) return;
+        for (int c = lo; c < curRow.length; ++c) {
+            curRow[c] = GF.sub(curRow[c], GF.mul(baseRow[c], m));
+        }
+    }
+
+    /**
+     * Apply the permutation of pivot columns to matrix rows
+     * @param A matrix
+     * @param perm pivot columns
+     */
+    static void permute(long[][] A, int[] perm) {
+        for (int r = perm.length - 1; r >= 0; --r) {
+            if (perm[r] != r) {
+                long[] t = A[r];
+                A[r] = A[perm[r]];
+                A[perm[r]] = t;
+            }
+        }
+    }
+
     /**
      * In-place matrix inversion
      * @param A input-output matrix
-     * throws {@code IllegalArgumentException} for a singular matrix
+     * throws {@code SingularMatrixException} for a singular matrix
      */
     static void invert(long[][] A) {
-        int[] perm = new int[A.length];
-        for (int k = 0; k < A.length; ++k) {
+        invert(A, new int[A.length], 0, null);
+    }
 
-            // Find a non-zero element in the base row
-            perm[k] = k;
-            long[] baseRow = A[k];
-            for (int c = k; c < A.length; ++c) {
-                if (baseRow[c] != GF.ZERO) {
-                    perm[k] = c;
-                    break;
-                }
+    /**
+     * In-place matrix inversion starting from a given step
+     * @param A input-output matrix with all rows having completed steps before {@code from}
+     * @param perm pivot columns, filled in for steps before {@code from}
+     * @param from first step to execute
+     * @param checkpoint periodic checkpoint, or {@code null}
+     * throws {@code SingularMatrixException} for a singular matrix
+     */
+    static void invert(long[][] A, int[] perm, int from, Checkpoint checkpoint) {
+        for (int k = from; k < A.length; ++k) {
+            if (checkpoint != null && checkpoint.due()) {
+                checkpoint.save(A, k, false, perm);
             }
 
             // Process the base row
-            int colIdx = perm[k];
-            long m = GF.rev(baseRow[colIdx]);
-            baseRow[colIdx] = baseRow[k];
-            baseRow[k] = GF.UNIT;
-            for (int c = 0; c < baseRow.length; ++c) {
-                baseRow[c] = GF.mul(baseRow[c], m);
-            }
+            long[] baseRow = A[k];
+            int colIdx = perm[k] = processBaseRow(baseRow, k);
 
             // Update other rows
             for (int r = 0; r < A.length; ++r) {
                 if (r == k) continue;
-                long[] curRow = A[r];
-                m = curRow[colIdx];
-                curRow[colIdx] = curRow[k];
-                curRow[k] = GF.ZERO;
-                for (int c = 0; c < curRow.length; ++c) {
-                    curRow[c] = GF.sub(curRow[c], GF.mul(baseRow[c], m));
-                }
+                updateRow(A[r], baseRow, k, colIdx);
             }
         }
 
         // Apply the permutation to matrix rows
-        for (int r = perm.length - 1; r >= 0; --r) {
-            if (perm[r] != r) {
-                long[] t = A[r];
-                A[r] = A[perm[r]];
-                A[perm[r]] = t;
+        permute(A, perm);
+    }
+
+    /**
+     * In-place matrix inversion on bit-sliced rows, see {@link BitSlice}
+     * @param A input-output matrix
+     * throws {@code SingularMatrixException} for a singular matrix
+     */
+    static void invertSliced(long[][] A) {
+        BitSlice.slice(A);
+        int[] perm = new int[A.length];
+        for (int k = 0; k < A.length; ++k) {
+            long[] baseRow = A[k];
+            int colIdx = perm[k] = BitSlice.processBaseRow(baseRow, k);
+            for (int r = 0; r < A.length; ++r) {
+                if (r == k) continue;
+                BitSlice.updateRow(A[r], baseRow, k, colIdx);
+            }
+        }
+        BitSlice.unslice(A);
+        permute(A, perm);
+    }
+
+    /**
+     * Forward elimination only, for the rank and the determinant.
+     * Rows without a pivot are dependent on the rows above them and are skipped,
+     * so pivots are placed at the positions {@code 0..rank-1}. Neither the pivoted columns
+     * nor the columns left of a pivot are updated, which takes about a third of the
+     * operations of an inversion.
+     * @param A input matrix, destroyed
+     * @return rank and determinant
+     */
+    static Echelon eliminate(long[][] A) {
+        int rank = 0;
+        long det = GF.UNIT;
+        for (int k = 0; k < A.length; ++k) {
+            long[] baseRow = A[k];
+            int colIdx = findPivot(baseRow, rank);
+            if (colIdx < 0) {
+                det = GF.ZERO;
+                continue;
+            }
+            det = GF.mul(det, baseRow[colIdx]);
+            normalize(baseRow, rank, colIdx, rank + 1);
+            for (int r = k + 1; r < A.length; ++r) {
+                updateRow(A[r], baseRow, rank, colIdx, rank + 1);
             }
+            ++rank;
         }
+        return new Echelon(rank, det);
     }
 }
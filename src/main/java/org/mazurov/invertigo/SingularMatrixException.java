@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+/**
+ * Thrown when no pivot element can be found in the base row at some step of the elimination.
+ * Rows {@code 0..step-1} are linearly independent and row {@code step} belongs to their span.
+ */
+public class SingularMatrixException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int step;
+
+    public SingularMatrixException(int step) {
+        super("Singular matrix: no pivot at step " + step);
+        this.step = step;
+    }
+
+    /**
+     * @return the elimination step at which the base row had no non-zero pivot candidate
+     */
+    public int getStep() {
+        return step;
+    }
+
+    /**
+     * @return the rank of the leading {@code step + 1} rows of the input matrix
+     */
+    public int getRank() {
+        return step;
+    }
+}
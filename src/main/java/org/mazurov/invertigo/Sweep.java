@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Scalability sweep over matrix sizes, thread counts and engines.
+ * Every point is run a number of times for warmup and then measured a number of times
+ * with {@code System.nanoTime}, matrix generation excluded. One CSV line per point is printed
+ * as soon as it is measured, with the median and percentiles of the measured runs.
+ * Speedup is relative to the serial engine at the same size if it is part of the sweep, and to
+ * the first thread count of the same engine otherwise; efficiency is speedup per thread.
+ */
+public class Sweep {
+
+    static final String[] ENGINES = { "serial", "sliced", "parallel", "nowait", "nowait-sliced", "affinity", "block", "double" };
+
+    private int[] sizes = range("256:2048");
+    private int[] threads = range("1:" + Runtime.getRuntime().availableProcessors());
+    private String[] engines = { "serial", "parallel", "nowait" };
+    private int warmup = 2;
+    private int repeat = 5;
+    private long seed = 1;
+    private Path jfrDir;
+
+    /**
+     * Parse a comma-separated list of integers and {@code lo:hi} ranges, which are doubled from
+     * {@code lo} up to {@code hi} inclusive, or {@code lo:hi:step} ranges, which are stepped through
+     */
+    static int[] range(String spec) {
+        List<Integer> values = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            String[] bounds = item.split(":");
+            int lo = Integer.parseInt(bounds[0]);
+            if (bounds.length == 1) {
+                values.add(lo);
+                continue;
+            }
+            int hi = Integer.parseInt(bounds[1]);
+            int step = bounds.length > 2 ? Integer.parseInt(bounds[2]) : 0;
+            if (lo <= 0 || step < 0) throw new NumberFormatException(item);
+            for (int v = lo; v <= hi; v = step > 0 ? v + step : 2 * v) {
+                values.add(v);
+            }
+            if (step == 0 && Integer.highestOneBit(hi / lo) * lo != hi) values.add(hi);
+        }
+        int[] res = new int[values.size()];
+        for (int i = 0; i < res.length; ++i) res[i] = values.get(i);
+        return res;
+    }
+
+    /**
+     * Time one run of an engine
+     * @return elapsed nanoseconds
+     */
+    private long run(String engine, int n, int par) {
+        if (engine.equals("double")) {
+            double[][] D = new DoubleInverse.RandomMatrix(seed, n).getMatrix();
+            System.gc();
+            long start = System.nanoTime();
+            DoubleInverse.Matrix.invert(D);
+            return System.nanoTime() - start;
+        }
+
+        for (long s = seed; ; ++s) {
+            long[][] A = new Main.RandomMatrix(s, n).getMatrix();
+            System.gc();
+            long start = System.nanoTime();
+            try {
+                invert(engine, A, par);
+            }
+            catch (SingularMatrixException ex) {
+                // Rare over a large field: time another matrix instead
+                continue;
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Invert a matrix in place with one of the {@link #ENGINES} other than {@code double}
+     * throws {@code SingularMatrixException} for a singular matrix
+     */
+    static void invert(String engine, long[][] A, int par) {
+        switch (engine) {
+            case "serial":
+                SerialInverse.invert(A);
+                break;
+            case "sliced":
+                SerialInverse.invertSliced(A);
+                break;
+            case "parallel":
+                new ParallelInverse(par).invert(A);
+                break;
+            case "nowait":
+                new NoWaitInverse(par).invert(A);
+                break;
+            case "nowait-sliced": {
+                NoWaitInverse inverse = new NoWaitInverse(par);
+                inverse.setSliced(true);
+                inverse.invert(A);
+                break;
+            }
+            case "affinity":
+                new NoWaitInverse(par, true).invert(A);
+                break;
+            case "block":
+                new BlockInverse(par).invert(A);
+                break;
+            default:
+                throw new IllegalArgumentException(engine);
+        }
+    }
+
+    /**
+     * @return the nearest-rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double p) {
+        int rank = (int) Math.ceil(p / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    /**
+     * Measure all points and print them as CSV
+     */
+    void sweep(PrintStream out) throws IOException {
+        out.println("engine,n,threads,runs,min_ms,p10_ms,median_ms,p90_ms,max_ms,score,speedup,efficiency");
+        for (int n : sizes) {
+            long serial = 0;
+            for (String engine : engines) {
+                // Engines without parallelism are measured once per size
+                boolean sequential = engine.equals("serial") || engine.equals("sliced") || engine.equals("double");
+                long base = 0;
+                int baseThreads = 1;
+                for (int par : sequential ? new int[] { 1 } : threads) {
+                    for (int i = 0; i < warmup; ++i) {
+                        run(engine, n, par);
+                    }
+
+                    Recording recording = null;
+                    if (jfrDir != null) {
+                        try {
+                            recording = new Recording(Configuration.getConfiguration("profile"));
+                        }
+                        catch (ParseException ex) {
+                            throw new IOException(ex);
+                        }
+                        recording.start();
+                    }
+                    long[] nanos = new long[repeat];
+                    for (int i = 0; i < repeat; ++i) {
+                        nanos[i] = run(engine, n, par);
+                    }
+                    if (recording != null) {
+                        recording.stop();
+                        recording.dump(jfrDir.resolve(engine + "-" + n + "-" + par + ".jfr"));
+                        recording.close();
+                    }
+
+                    Arrays.sort(nanos);
+                    long median = percentile(nanos, 50);
+                    if (engine.equals("serial")) serial = median;
+                    if (base == 0) {
+                        base = engine.equals("double") || serial == 0 ? median : serial;
+                        baseThreads = engine.equals("double") || serial == 0 ? par : 1;
+                    }
+                    double speedup = (double) base / median;
+                    double score = 1e9 * n * n * n / median;
+                    out.println(String.format(Locale.ROOT, "%s,%d,%d,%d,%s,%s,%s,%s,%s,%d,%.3f,%.3f",
+                            engine, n, par, repeat, ms(nanos[0]), ms(percentile(nanos, 10)), ms(median),
+                            ms(percentile(nanos, 90)), ms(nanos[nanos.length - 1]), (long) score,
+                            speedup, speedup * baseThreads / par));
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    static void usage() {
+        System.out.println("Usage: java -jar MatrixInverse.jar -sweep [-n sizes] [-p threads] [-e engines] " +
+                "[-w warmup] [-r repeat] [-s seed] [-o file.csv] [-jfr dir]");
+        System.out.println("  sizes and threads: comma-separated numbers, lo:hi doubling or lo:hi:step ranges");
+        System.out.println("  engines: comma-separated subset of " + String.join(",", ENGINES));
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Sweep sweep = new Sweep();
+        String csvFile = null;
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                String arg = args[i];
+                if (++i == args.length) usage();
+                switch (arg) {
+                    case "-n":
+                        sweep.sizes = range(args[i]);
+                        break;
+                    case "-p":
+                        sweep.threads = range(args[i]);
+                        break;
+                    case "-e":
+                        sweep.engines = args[i].split(",");
+                        // Serial first so that it is the baseline for the other engines
+                        Arrays.sort(sweep.engines, (a, b) -> Boolean.compare(!a.equals("serial"), !b.equals("serial")));
+                        for (String e : sweep.engines) {
+                            if (!Arrays.asList(ENGINES).contains(e)) usage();
+                        }
+                        break;
+                    case "-w":
+                        sweep.warmup = Integer.parseInt(args[i]);
+                        break;
+                    case "-r":
+                        sweep.repeat = Integer.parseInt(args[i]);
+                        break;
+                    case "-s":
+                        sweep.seed = Long.parseLong(args[i]);
+                        break;
+                    case "-o":
+                        csvFile = args[i];
+                        break;
+                    case "-jfr":
+                        sweep.jfrDir = Files.createDirectories(Paths.get(args[i]));
+                        break;
+                    default:
+                        usage();
+                        break;
+                }
+            }
+        }
+        catch (NumberFormatException ex) {
+            usage();
+        }
+        if (sweep.repeat <= 0 || sweep.warmup < 0) usage();
+
+        if (csvFile == null) {
+            sweep.sweep(System.out);
+        }
+        else {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(csvFile)))) {
+                sweep.sweep(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Oleg Mazurov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.mazurov.invertigo;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Execution trace of a single inversion exported in the Chrome trace event format,
+ * which both chrome://tracing and Perfetto open.
+ * Every thread records into its own preallocated ring buffer of primitive arrays,
+ * so recording neither allocates nor synchronizes. Once a buffer wraps around
+ * only the most recent records of that thread are kept, and the number of dropped
+ * records is reported in the trace metadata.
+ */
+public class Trace {
+
+    public static final byte PIVOT   = 0;    // base row normalization
+    public static final byte UPDATE  = 1;    // row update with a base row
+    public static final byte BARRIER = 2;    // waiting for other threads to finish a step
+
+    private static final String[] NAMES = { "pivot", "update", "barrier" };
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;    // records per thread, about 1.6 MB
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /**
+     * Ring buffer owned by a single thread
+     */
+    static class Buffer {
+        final int     tid;
+        final String  thread;
+        final long[]  begin;
+        final long[]  end;
+        final int[]   row;
+        final int[]   step;
+        final byte[]  kind;
+        long          count;
+
+        Buffer(int tid, String thread, int capacity) {
+            this.tid = tid;
+            this.thread = thread;
+            begin = new long[capacity];
+            end = new long[capacity];
+            row = new int[capacity];
+            step = new int[capacity];
+            kind = new byte[capacity];
+        }
+
+        /**
+         * @return number of records overwritten after the buffer wrapped around
+         */
+        long dropped() {
+            return Math.max(0, count - begin.length);
+        }
+    }
+
+    private final String engine;
+    private final int capacity;
+    private final long origin;
+    private final AtomicInteger threads = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Buffer> local;
+
+    /**
+     * @param engine name of the traced engine
+     * @param capacity number of records kept per thread, rounded up to a power of two
+     */
+    public Trace(String engine, int capacity) {
+        this.engine = engine;
+        this.capacity = capacity <= 1 ? 1 : capacity > MAX_CAPACITY ? MAX_CAPACITY : Integer.highestOneBit(capacity - 1) << 1;
+        local = ThreadLocal.withInitial(() -> {
+            Buffer b = new Buffer(threads.getAndIncrement(), Thread.currentThread().getName(), this.capacity);
+            buffers.add(b);
+            return b;
+        });
+        origin = System.nanoTime();
+    }
+
+    /**
+     * @return ring buffer of the calling thread
+     */
+    Buffer buffer() {
+        return local.get();
+    }
+
+    /**
+     * Must be called after the traced inversion has completed.
+     * @return number of records lost to ring buffer wrap-around over all threads
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (Buffer b : buffers) dropped += b.dropped();
+        return dropped;
+    }
+
+    /**
+     * Record a completed span
+     * @param b ring buffer of the calling thread
+     * @param kind one of {@link #PIVOT}, {@link #UPDATE}, {@link #BARRIER}
+     * @param row matrix row, or {@code -1} if not applicable
+     * @param step elimination step
+     * @param begin {@code System.nanoTime()} at the beginning of the span
+     * @param end {@code System.nanoTime()} at the end of the span
+     */
+    static void record(Buffer b, byte kind, int row, int step, long begin, long end) {
+        int i = (int) b.count++ & (b.begin.length - 1);
+        b.kind[i] = kind;
+        b.row[i] = row;
+        b.step[i] = step;
+        b.begin[i] = begin;
+        b.end[i] = end;
+    }
+
+    /**
+     * @return a JSON string literal
+     */
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Export all records as Chrome trace JSON, with the ring capacity and the dropped record counts
+     * per thread id in its metadata.
+     * Must be called after the traced inversion has completed.
+     * @param file output file
+     */
+    public void write(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[\n");
+            out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":" + quote(engine) + "}}");
+            String category = quote(engine);
+            for (Buffer b : buffers) {
+                out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + b.tid +
+                        ",\"args\":{\"name\":" + quote(b.thread) + "}}");
+                long first = Math.max(0, b.count - b.begin.length);
+                for (long r = first; r < b.count; ++r) {
+                    int i = (int) r & (b.begin.length - 1);
+                    out.write(String.format(Locale.ROOT,
+                            ",\n{\"name\":\"%s\",\"cat\":%s,\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":1,\"tid\":%d," +
+                            "\"args\":{\"row\":%d,\"step\":%d}}",
+                            NAMES[b.kind[i]], category, (b.begin[i] - origin) / 1e3, (b.end[i] - b.begin[i]) / 1e3,
+                            b.tid, b.row[i], b.step[i]));
+                }
+            }
+            out.write("\n],\n\"metadata\":{\"capacity\":" + capacity + ",\"dropped\":" + getDropped() +
+                    ",\"droppedByThread\":{");
+            String sep = "";
+            for (Buffer b : buffers) {
+                out.write(sep + "\"" + b.tid + "\":" + b.dropped());
+                sep = ",";
+            }
+            out.write("}}}\n");
+        }
+    }
+}